@@ -0,0 +1,258 @@
+package dev.nuclr.commander.service;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts files that live inside a ZIP or JAR file system in the order they
+ * are stored in the archive.
+ *
+ * <p>
+ * Going through the archive file system, every file is a seek to its local
+ * header and a fresh inflater, in whatever order the walk found it. Instead the
+ * transfer hands such files to {@link #add} and later extracts each archive in
+ * one pass with a single {@link ZipInputStream} over the archive file, which
+ * reads it front to back at sequential speed and writes every wanted entry to
+ * its targets as it passes by. The pass stops after the last wanted entry.
+ *
+ * <p>
+ * A pass has to inflate the entries it skips, so it is only taken when the
+ * wanted files make up a good part of the archive; a few files picked out of a
+ * large archive are copied one by one through the file system. Files the pass
+ * could not find, and everything from an entry the stream cannot read (STORED
+ * entries with a data descriptor), are handed back to the caller the same way.
+ */
+final class ArchiveExtractor {
+
+	// Wanted bytes, uncompressed, per byte of archive before a pass pays off.
+	private static final double MIN_STREAMED_FRACTION = 0.5;
+	private static final int STREAM_BUFFER_SIZE = 1024 * 1024;
+	private static final int COPY_BUFFER_SIZE = 1024 * 1024;
+
+	private final Map<FileSystem, Optional<Path>> archives = new IdentityHashMap<>();
+	private final Map<Path, Batch> batches = new LinkedHashMap<>();
+
+	/**
+	 * One file waiting for its archive to be extracted.
+	 */
+	record Pending(TransferPlan.Entry entry, List<Path> targetPaths, List<TransferJournal.FileEntry> journalEntries) {
+	}
+
+	/**
+	 * Receives cancellation checks, throttling and progress from the extracting
+	 * thread, and the files that have to be copied some other way.
+	 */
+	interface Listener {
+		void checkCancelled() throws IOException;
+
+		void throttle(long bytes) throws IOException;
+
+		void started(Pending file);
+
+		void written(Pending file, Path targetPath, long bytes);
+
+		/**
+		 * @param checksum the CRC32C of the extracted bytes, or {@code null} when
+		 *                 the transfer is not verified
+		 */
+		void completed(Pending file, Checksum checksum) throws IOException;
+
+		void fallback(Pending file) throws IOException;
+	}
+
+	/**
+	 * Queues {@code file} for extraction when its source lives in an archive on
+	 * the default file system.
+	 *
+	 * @return {@code false} if the file has to be copied as usual
+	 */
+	boolean add(Pending file) {
+		Path source = file.entry().source();
+		Path archive = archives.computeIfAbsent(source.getFileSystem(), fileSystem -> Optional.ofNullable(archiveOf(source)))
+				.orElse(null);
+		if (archive == null) {
+			return false;
+		}
+		batches.computeIfAbsent(archive, Batch::new).add(entryName(source), file);
+		return true;
+	}
+
+	boolean isEmpty() {
+		return batches.isEmpty();
+	}
+
+	/**
+	 * @return the queued files, one batch per archive, leaving nothing queued
+	 */
+	List<Batch> drain() {
+		List<Batch> drained = new ArrayList<>(batches.values());
+		batches.clear();
+		return drained;
+	}
+
+	/**
+	 * @return the archive file behind a path of the JDK's ZIP file system, or
+	 *         {@code null} for any other path, including archives nested in
+	 *         archives
+	 */
+	static Path archiveOf(Path path) {
+		FileSystem fileSystem = path.getFileSystem();
+		if (fileSystem == FileSystems.getDefault() || !"jar".equalsIgnoreCase(fileSystem.provider().getScheme())) {
+			return null;
+		}
+		try {
+			// jar:file:///dir/archive.zip!/entry
+			String uri = path.toUri().toString();
+			int separator = uri.indexOf("!/");
+			if (separator < 0) {
+				return null;
+			}
+			URI archiveUri = URI.create(uri.substring("jar:".length(), separator));
+			if (!"file".equalsIgnoreCase(archiveUri.getScheme())) {
+				return null;
+			}
+			Path archive = Path.of(archiveUri);
+			return Files.isRegularFile(archive) ? archive : null;
+		} catch (RuntimeException ex) {
+			return null;
+		}
+	}
+
+	private static String entryName(Path path) {
+		String name = path.toAbsolutePath().normalize().toString();
+		return name.startsWith("/") ? name.substring(1) : name;
+	}
+
+	/**
+	 * The files wanted from one archive, keyed by entry name.
+	 */
+	static final class Batch {
+		private final Path archive;
+		private final Map<String, Pending> files = new LinkedHashMap<>();
+		private long bytes;
+
+		private Batch(Path archive) {
+			this.archive = archive;
+		}
+
+		private void add(String name, Pending file) {
+			files.put(name, file);
+			bytes += file.entry().size();
+		}
+
+		Path archive() {
+			return archive;
+		}
+
+		List<Pending> files() {
+			return List.copyOf(files.values());
+		}
+
+		/**
+		 * @return whether one pass over the archive beats copying the files one by
+		 *         one
+		 */
+		boolean worthStreaming() {
+			try {
+				return bytes >= Files.size(archive) * MIN_STREAMED_FRACTION;
+			} catch (IOException ex) {
+				return false;
+			}
+		}
+
+		/**
+		 * Extracts the batch in archive order. Every file is either completed or
+		 * handed to {@link Listener#fallback} by the time this returns normally.
+		 */
+		void extract(boolean verify, Listener listener) throws IOException {
+			Map<String, Pending> remaining = new HashMap<>(files);
+			Pending current = null;
+			try (InputStream input = new BufferedInputStream(Files.newInputStream(archive), STREAM_BUFFER_SIZE);
+					ZipInputStream zip = new ZipInputStream(input)) {
+				byte[] buffer = new byte[COPY_BUFFER_SIZE];
+				ZipEntry zipEntry;
+				while (!remaining.isEmpty() && (zipEntry = zip.getNextEntry()) != null) {
+					listener.checkCancelled();
+					Pending file = zipEntry.isDirectory() ? null : remaining.remove(zipEntry.getName());
+					if (file == null) {
+						continue;
+					}
+					current = file;
+					extract(zip, buffer, file, verify ? new CRC32C() : null, listener);
+					current = null;
+				}
+			} catch (ZipException ex) {
+				// The stream cannot go on; the archive file system still can, entry by entry.
+				if (current != null) {
+					remaining.put(entryName(current.entry().source()), current);
+				}
+			}
+			for (Pending file : remaining.values()) {
+				listener.fallback(file);
+			}
+		}
+
+		private void extract(ZipInputStream zip, byte[] buffer, Pending file, Checksum checksum, Listener listener) throws IOException {
+			listener.started(file);
+			List<WritableByteChannel> outputs = new ArrayList<>(file.targetPaths().size());
+			try {
+				for (Path targetPath : file.targetPaths()) {
+					outputs.add(Files.newByteChannel(
+							targetPath,
+							StandardOpenOption.WRITE,
+							StandardOpenOption.CREATE,
+							StandardOpenOption.TRUNCATE_EXISTING));
+				}
+				int read;
+				while ((read = zip.read(buffer)) > 0) {
+					listener.checkCancelled();
+					listener.throttle(read);
+					if (checksum != null) {
+						checksum.update(buffer, 0, read);
+					}
+					for (int index = 0; index < outputs.size(); index++) {
+						ByteBuffer block = ByteBuffer.wrap(buffer, 0, read);
+						while (block.hasRemaining()) {
+							outputs.get(index).write(block);
+						}
+						listener.written(file, file.targetPaths().get(index), read);
+					}
+				}
+			} finally {
+				IOException closeFailure = null;
+				for (WritableByteChannel output : outputs) {
+					try {
+						output.close();
+					} catch (IOException ex) {
+						closeFailure = ex;
+					}
+				}
+				if (closeFailure != null) {
+					throw closeFailure;
+				}
+			}
+			listener.completed(file, checksum);
+		}
+	}
+}
@@ -0,0 +1,573 @@
+package dev.nuclr.commander.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Streams entries into a new ZIP or gzip-compressed TAR archive.
+ *
+ * <p>
+ * Entries are added in the order the caller walks them and go straight to the
+ * output; nothing is staged in temporary files. File contents are read once,
+ * sequentially, while {@link ParallelDeflater} compresses them on all cores
+ * and writes the results back in order. ZIP entries are separate deflate
+ * streams with their sizes in a data descriptor after the data, so no header
+ * has to be patched afterwards; TAR archives are one deflate stream across
+ * all headers and contents, wrapped in a gzip header and trailer.
+ *
+ * <p>
+ * {@link #finish()} writes the end of the archive. An archive that was closed
+ * without it is incomplete and should be deleted by the caller.
+ */
+abstract class ArchiveWriter implements AutoCloseable {
+
+	private static final int READ_BUFFER_SIZE = 256 * 1024;
+
+	final ParallelDeflater deflater;
+	final Listener listener;
+
+	private ArchiveWriter(OutputStream output, Listener listener) {
+		this.deflater = new ParallelDeflater(output, Deflater.DEFAULT_COMPRESSION, Runtime.getRuntime().availableProcessors());
+		this.listener = listener;
+	}
+
+	enum Format {
+		ZIP,
+		TAR_GZ;
+
+		/**
+		 * @return the format for the extension of {@code archive}, or
+		 *         {@code null} if none matches
+		 */
+		static Format of(Path archive) {
+			Path fileName = archive.getFileName();
+			String name = fileName != null ? fileName.toString().toLowerCase(Locale.ROOT) : "";
+			if (name.endsWith(".zip") || name.endsWith(".jar")) {
+				return ZIP;
+			}
+			if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+				return TAR_GZ;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Receives cancellation checks, throttling and progress while file contents
+	 * are read.
+	 */
+	interface Listener {
+		void checkCancelled() throws IOException;
+
+		void throttle(long bytes) throws IOException;
+
+		void read(Path source, long bytes);
+	}
+
+	static ArchiveWriter open(Format format, OutputStream output, Listener listener) throws IOException {
+		return switch (format) {
+			case ZIP -> new Zip(output, listener);
+			case TAR_GZ -> new TarGz(output, listener);
+		};
+	}
+
+	/**
+	 * @return the entry name of {@code source}: the name of its root followed by
+	 *         its path below the root, separated by {@code /}
+	 */
+	static String entryName(Path root, Path source) {
+		List<String> parts = new ArrayList<>();
+		Path rootName = root.getFileName();
+		if (rootName != null) {
+			parts.add(rootName.toString());
+		}
+		for (Path part : root.relativize(source)) {
+			if (!part.toString().isEmpty()) {
+				parts.add(part.toString());
+			}
+		}
+		return String.join("/", parts);
+	}
+
+	abstract void directory(String name, Path source) throws IOException;
+
+	abstract void file(String name, Path source) throws IOException;
+
+	abstract void symbolicLink(String name, Path source) throws IOException;
+
+	/**
+	 * Writes what is still queued and the end of the archive.
+	 */
+	abstract void finish() throws IOException;
+
+	@Override
+	public void close() {
+		deflater.close();
+	}
+
+	/**
+	 * Reads up to {@code limit} bytes of {@code source} and hands them to
+	 * {@code sink} in order.
+	 *
+	 * @return the number of bytes read
+	 */
+	long read(Path source, long limit, Sink sink) throws IOException {
+		long total = 0L;
+		try (InputStream input = Files.newInputStream(source)) {
+			byte[] buffer = new byte[READ_BUFFER_SIZE];
+			while (total < limit) {
+				listener.checkCancelled();
+				int read = input.read(buffer, 0, (int) Math.min(buffer.length, limit - total));
+				if (read < 0) {
+					break;
+				}
+				listener.throttle(read);
+				sink.accept(buffer, read);
+				total += read;
+				listener.read(source, read);
+			}
+		}
+		return total;
+	}
+
+	interface Sink {
+		void accept(byte[] bytes, int count) throws IOException;
+	}
+
+	static long lastModified(Path path, LinkOption... options) {
+		try {
+			return Files.getLastModifiedTime(path, options).toMillis();
+		} catch (IOException ex) {
+			return System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * @return the POSIX permission bits of {@code path}, or the usual defaults
+	 *         where the file system has none
+	 */
+	static int permissions(Path path, boolean directory) {
+		try {
+			int mode = 0;
+			for (PosixFilePermission permission : Files.getPosixFilePermissions(path)) {
+				mode |= 1 << (8 - permission.ordinal());
+			}
+			return mode;
+		} catch (IOException | UnsupportedOperationException ex) {
+			return directory ? 0755 : 0644;
+		}
+	}
+
+	static String linkTarget(Path link) throws IOException {
+		String separator = link.getFileSystem().getSeparator();
+		String target = Files.readSymbolicLink(link).toString();
+		return "/".equals(separator) ? target : target.replace(separator, "/");
+	}
+
+	private static final class Zip extends ArchiveWriter {
+		private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+		// Files this large get ZIP64 sizes up front; deflate may grow incompressible data a little.
+		private static final long ZIP64_FILE_SIZE = 0xF0000000L;
+		private static final int MAX_ENTRIES = 0xFFFF;
+		private static final int VERSION = 20;
+		private static final int VERSION_ZIP64 = 45;
+		private static final int MADE_BY_UNIX = 3 << 8;
+		private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+		private static final int FLAG_UTF8 = 0x0800;
+		private static final int METHOD_STORED = 0;
+		private static final int METHOD_DEFLATED = 8;
+		private static final int TYPE_DIRECTORY = 0040000;
+		private static final int TYPE_FILE = 0100000;
+		private static final int TYPE_SYMBOLIC_LINK = 0120000;
+		private static final int DOS_DIRECTORY = 0x10;
+
+		private final List<Entry> entries = new ArrayList<>();
+
+		private Zip(OutputStream output, Listener listener) {
+			super(output, listener);
+		}
+
+		@Override
+		void directory(String name, Path source) throws IOException {
+			int attributes = (TYPE_DIRECTORY | permissions(source, true)) << 16 | DOS_DIRECTORY;
+			stored(name + "/", new byte[0], attributes, lastModified(source));
+		}
+
+		@Override
+		void symbolicLink(String name, Path source) throws IOException {
+			byte[] target = linkTarget(source).getBytes(StandardCharsets.UTF_8);
+			stored(name, target, (TYPE_SYMBOLIC_LINK | 0777) << 16, lastModified(source, LinkOption.NOFOLLOW_LINKS));
+		}
+
+		@Override
+		void file(String name, Path source) throws IOException {
+			long size = Files.size(source);
+			Entry entry = new Entry(
+					name,
+					METHOD_DEFLATED,
+					FLAG_DATA_DESCRIPTOR | FLAG_UTF8,
+					lastModified(source),
+					(TYPE_FILE | permissions(source, false)) << 16,
+					size >= ZIP64_FILE_SIZE);
+			entries.add(entry);
+			deflater.then(() -> {
+				entry.offset = deflater.position();
+				return localHeader(entry);
+			});
+			CRC32 crc = new CRC32();
+			ParallelDeflater.Stream stream = deflater.stream(size);
+			entry.size = read(source, Long.MAX_VALUE, (bytes, count) -> {
+				crc.update(bytes, 0, count);
+				stream.write(bytes, 0, count);
+			});
+			entry.crc = crc.getValue();
+			stream.finish();
+			deflater.then(() -> {
+				entry.compressedSize = stream.compressedSize();
+				if (!entry.zip64 && (entry.size >= ZIP64_LIMIT || entry.compressedSize >= ZIP64_LIMIT)) {
+					throw new IOException("File grew past 4 GB while being archived: " + source);
+				}
+				return dataDescriptor(entry);
+			});
+		}
+
+		@Override
+		void finish() throws IOException {
+			deflater.flush();
+			long start = deflater.position();
+			for (Entry entry : entries) {
+				deflater.write(centralHeader(entry));
+			}
+			deflater.flush();
+			long size = deflater.position() - start;
+			int count = entries.size();
+			ByteBuffer end = buffer(22 + 56 + 20);
+			if (count >= MAX_ENTRIES || start >= ZIP64_LIMIT || size >= ZIP64_LIMIT) {
+				long zip64End = deflater.position();
+				end.putInt(0x06064b50).putLong(44L).putShort((short) (MADE_BY_UNIX | VERSION_ZIP64)).putShort((short) VERSION_ZIP64)
+						.putInt(0).putInt(0).putLong(count).putLong(count).putLong(size).putLong(start);
+				end.putInt(0x07064b50).putInt(0).putLong(zip64End).putInt(1);
+			}
+			end.putInt(0x06054b50).putShort((short) 0).putShort((short) 0)
+					.putShort((short) Math.min(count, MAX_ENTRIES)).putShort((short) Math.min(count, MAX_ENTRIES))
+					.putInt((int) Math.min(size, ZIP64_LIMIT)).putInt((int) Math.min(start, ZIP64_LIMIT)).putShort((short) 0);
+			deflater.write(bytes(end));
+			deflater.flush();
+		}
+
+		private void stored(String name, byte[] data, int attributes, long lastModified) throws IOException {
+			Entry entry = new Entry(name, METHOD_STORED, FLAG_UTF8, lastModified, attributes, false);
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			entry.crc = crc.getValue();
+			entry.size = data.length;
+			entry.compressedSize = data.length;
+			entries.add(entry);
+			deflater.then(() -> {
+				entry.offset = deflater.position();
+				byte[] header = localHeader(entry);
+				byte[] bytes = new byte[header.length + data.length];
+				System.arraycopy(header, 0, bytes, 0, header.length);
+				System.arraycopy(data, 0, bytes, header.length, data.length);
+				return bytes;
+			});
+		}
+
+		private byte[] localHeader(Entry entry) {
+			boolean descriptor = (entry.flags & FLAG_DATA_DESCRIPTOR) != 0;
+			ByteBuffer header = buffer(30 + entry.name.length + (entry.zip64 ? 20 : 0));
+			header.putInt(0x04034b50)
+					.putShort((short) (entry.zip64 ? VERSION_ZIP64 : VERSION))
+					.putShort((short) entry.flags)
+					.putShort((short) entry.method)
+					.putInt(entry.dosTime);
+			if (descriptor) {
+				// Known once the data is written; the descriptor after it carries them.
+				int unknown = entry.zip64 ? (int) ZIP64_LIMIT : 0;
+				header.putInt(0).putInt(unknown).putInt(unknown);
+			} else {
+				header.putInt((int) entry.crc).putInt((int) entry.compressedSize).putInt((int) entry.size);
+			}
+			header.putShort((short) entry.name.length).putShort((short) (entry.zip64 ? 20 : 0)).put(entry.name);
+			if (entry.zip64) {
+				header.putShort((short) 0x0001).putShort((short) 16).putLong(0L).putLong(0L);
+			}
+			return bytes(header);
+		}
+
+		private byte[] dataDescriptor(Entry entry) {
+			ByteBuffer descriptor = buffer(entry.zip64 ? 24 : 16);
+			descriptor.putInt(0x08074b50).putInt((int) entry.crc);
+			if (entry.zip64) {
+				descriptor.putLong(entry.compressedSize).putLong(entry.size);
+			} else {
+				descriptor.putInt((int) entry.compressedSize).putInt((int) entry.size);
+			}
+			return bytes(descriptor);
+		}
+
+		private byte[] centralHeader(Entry entry) {
+			boolean largeSize = entry.size >= ZIP64_LIMIT;
+			boolean largeCompressedSize = entry.compressedSize >= ZIP64_LIMIT;
+			boolean largeOffset = entry.offset >= ZIP64_LIMIT;
+			int extraLength = (largeSize ? 8 : 0) + (largeCompressedSize ? 8 : 0) + (largeOffset ? 8 : 0);
+			int extraField = extraLength > 0 ? 4 + extraLength : 0;
+			int version = entry.zip64 || extraField > 0 ? VERSION_ZIP64 : VERSION;
+			ByteBuffer header = buffer(46 + entry.name.length + extraField);
+			header.putInt(0x02014b50)
+					.putShort((short) (MADE_BY_UNIX | version))
+					.putShort((short) version)
+					.putShort((short) entry.flags)
+					.putShort((short) entry.method)
+					.putInt(entry.dosTime)
+					.putInt((int) entry.crc)
+					.putInt((int) Math.min(entry.compressedSize, ZIP64_LIMIT))
+					.putInt((int) Math.min(entry.size, ZIP64_LIMIT))
+					.putShort((short) entry.name.length)
+					.putShort((short) extraField)
+					.putShort((short) 0)
+					.putShort((short) 0)
+					.putShort((short) 0)
+					.putInt(entry.externalAttributes)
+					.putInt((int) Math.min(entry.offset, ZIP64_LIMIT))
+					.put(entry.name);
+			if (extraField > 0) {
+				header.putShort((short) 0x0001).putShort((short) extraLength);
+				if (largeSize) {
+					header.putLong(entry.size);
+				}
+				if (largeCompressedSize) {
+					header.putLong(entry.compressedSize);
+				}
+				if (largeOffset) {
+					header.putLong(entry.offset);
+				}
+			}
+			return bytes(header);
+		}
+
+		private static ByteBuffer buffer(int capacity) {
+			return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		private static byte[] bytes(ByteBuffer buffer) {
+			return buffer.position() == buffer.capacity()
+					? buffer.array()
+					: Arrays.copyOf(buffer.array(), buffer.position());
+		}
+
+		private static int dosTime(long millis) {
+			LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+			if (time.getYear() < 1980) {
+				time = LocalDateTime.of(1980, 1, 1, 0, 0);
+			} else if (time.getYear() > 2107) {
+				time = LocalDateTime.of(2107, 12, 31, 23, 59, 58);
+			}
+			int date = (time.getYear() - 1980) << 9 | time.getMonthValue() << 5 | time.getDayOfMonth();
+			int clock = time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+			return date << 16 | clock;
+		}
+
+		/**
+		 * What the central directory needs to know about one entry.
+		 */
+		private static final class Entry {
+			private final byte[] name;
+			private final int method;
+			private final int flags;
+			private final int dosTime;
+			private final int externalAttributes;
+			private final boolean zip64;
+			private long offset;
+			private long crc;
+			private long size;
+			private long compressedSize;
+
+			private Entry(String name, int method, int flags, long lastModified, int externalAttributes, boolean zip64) {
+				this.name = name.getBytes(StandardCharsets.UTF_8);
+				this.method = method;
+				this.flags = flags;
+				this.dosTime = dosTime(lastModified);
+				this.externalAttributes = externalAttributes;
+				this.zip64 = zip64;
+			}
+		}
+	}
+
+	private static final class TarGz extends ArchiveWriter {
+		private static final int BLOCK_SIZE = 512;
+		private static final int NAME_LENGTH = 100;
+		// Eleven octal digits; larger files carry their size in a PAX header.
+		private static final long MAX_OCTAL_SIZE = 077777777777L;
+		private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+		private final ParallelDeflater.Stream stream;
+		private final CRC32 crc = new CRC32();
+		private long size;
+
+		private TarGz(OutputStream output, Listener listener) throws IOException {
+			super(output, listener);
+			deflater.write(GZIP_HEADER);
+			stream = deflater.stream(ParallelDeflater.CHUNK_SIZE);
+		}
+
+		@Override
+		void directory(String name, Path source) throws IOException {
+			header(name + "/", '5', 0L, permissions(source, true), lastModified(source), "");
+		}
+
+		@Override
+		void symbolicLink(String name, Path source) throws IOException {
+			header(name, '2', 0L, 0777, lastModified(source, LinkOption.NOFOLLOW_LINKS), linkTarget(source));
+		}
+
+		@Override
+		void file(String name, Path source) throws IOException {
+			long length = Files.size(source);
+			header(name, '0', length, permissions(source, false), lastModified(source), "");
+			// The header already promised this many bytes; later growth is left out.
+			long read = read(source, length, this::emit);
+			if (read < length) {
+				throw new IOException("File shrank while being archived: " + source);
+			}
+			pad(read);
+		}
+
+		@Override
+		void finish() throws IOException {
+			emit(new byte[2 * BLOCK_SIZE]);
+			stream.finish();
+			ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			trailer.putInt((int) crc.getValue()).putInt((int) size);
+			deflater.write(trailer.array());
+			deflater.flush();
+		}
+
+		private void header(String name, char type, long length, int mode, long lastModified, String linkName) throws IOException {
+			Map<String, String> extended = new LinkedHashMap<>();
+			if (!fits(name)) {
+				extended.put("path", name);
+			}
+			if (!fits(linkName)) {
+				extended.put("linkpath", linkName);
+			}
+			if (length > MAX_OCTAL_SIZE) {
+				extended.put("size", Long.toString(length));
+			}
+			if (!extended.isEmpty()) {
+				byte[] records = paxRecords(extended);
+				emit(headerBlock("PaxHeader", 'x', records.length, 0644, lastModified, ""));
+				emit(records);
+				pad(records.length);
+			}
+			emit(headerBlock(name, type, length > MAX_OCTAL_SIZE ? 0L : length, mode, lastModified, linkName));
+		}
+
+		private byte[] headerBlock(String name, char type, long length, int mode, long lastModified, String linkName) {
+			byte[] block = new byte[BLOCK_SIZE];
+			text(block, 0, NAME_LENGTH, name);
+			octal(block, 100, 8, mode);
+			octal(block, 108, 8, 0L);
+			octal(block, 116, 8, 0L);
+			octal(block, 124, 12, length);
+			octal(block, 136, 12, Math.max(0L, lastModified / 1000L));
+			for (int index = 148; index < 156; index++) {
+				block[index] = ' ';
+			}
+			block[156] = (byte) type;
+			text(block, 157, NAME_LENGTH, linkName);
+			text(block, 257, 6, "ustar");
+			text(block, 263, 2, "00");
+			long checksum = 0L;
+			for (byte value : block) {
+				checksum += value & 0xff;
+			}
+			// Six digits, a NUL and the space that was already there.
+			octal(block, 148, 7, checksum);
+			block[154] = 0;
+			return block;
+		}
+
+		private void emit(byte[] bytes) throws IOException {
+			emit(bytes, bytes.length);
+		}
+
+		private void emit(byte[] bytes, int count) throws IOException {
+			crc.update(bytes, 0, count);
+			size += count;
+			stream.write(bytes, 0, count);
+		}
+
+		private void pad(long length) throws IOException {
+			int remainder = (int) (length % BLOCK_SIZE);
+			if (remainder != 0) {
+				emit(new byte[BLOCK_SIZE - remainder]);
+			}
+		}
+
+		private static boolean fits(String value) {
+			if (value.length() > NAME_LENGTH) {
+				return false;
+			}
+			for (int index = 0; index < value.length(); index++) {
+				if (value.charAt(index) > 0x7f) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Each record is {@code "<length> <key>=<value>\n"}, where the length
+		 * counts the whole record including its own digits.
+		 */
+		private static byte[] paxRecords(Map<String, String> values) {
+			StringBuilder records = new StringBuilder();
+			for (Map.Entry<String, String> value : values.entrySet()) {
+				String record = " " + value.getKey() + "=" + value.getValue() + "\n";
+				int length = record.getBytes(StandardCharsets.UTF_8).length;
+				int digits = 1;
+				while (Integer.toString(length + digits).length() > digits) {
+					digits++;
+				}
+				records.append(length + digits).append(record);
+			}
+			return records.toString().getBytes(StandardCharsets.UTF_8);
+		}
+
+		private static void text(byte[] block, int offset, int length, String value) {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			System.arraycopy(bytes, 0, block, offset, Math.min(length, bytes.length));
+		}
+
+		/**
+		 * Writes {@code value} as zero-padded octal digits followed by a NUL.
+		 */
+		private static void octal(byte[] block, int offset, int length, long value) {
+			String digits = Long.toOctalString(value);
+			if (digits.length() > length - 1) {
+				digits = "7".repeat(length - 1);
+			}
+			text(block, offset, length - 1, "0".repeat(length - 1 - digits.length()) + digits);
+		}
+	}
+}
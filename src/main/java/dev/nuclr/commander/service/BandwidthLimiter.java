@@ -0,0 +1,110 @@
+package dev.nuclr.commander.service;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket that caps the bytes per second of one transfer, or of all of
+ * them when used as the global limit of {@link PanelTransferService}.
+ *
+ * <p>
+ * Copy loops take tokens before every chunk they read. The bucket refills at
+ * the configured rate and holds at most a tenth of a second worth of tokens,
+ * so a transfer that was idle cannot burst past the limit afterwards. Callers
+ * that take more than is available reserve the tokens anyway and sleep off the
+ * deficit, which keeps concurrent copy threads fair without a queue. The limit
+ * may be changed at any time; {@code 0} turns the limiter off, and an unlimited
+ * limiter costs a single volatile read per chunk.
+ */
+public final class BandwidthLimiter {
+
+	public static final long UNLIMITED = 0L;
+
+	// Chunks are sized so a throttled copy still checks for cancellation about ten times a second.
+	private static final long CHUNKS_PER_SECOND = 10L;
+	private static final int MIN_CHUNK_SIZE = 4 * 1024;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private volatile long bytesPerSecond;
+	private double available;
+	private long refilled = System.nanoTime();
+
+	public BandwidthLimiter() {
+		this(UNLIMITED);
+	}
+
+	public BandwidthLimiter(long bytesPerSecond) {
+		setLimit(bytesPerSecond);
+	}
+
+	/**
+	 * @return the limit in bytes per second, or {@link #UNLIMITED}
+	 */
+	public long getLimit() {
+		return bytesPerSecond;
+	}
+
+	public void setLimit(long bytesPerSecond) {
+		lock.lock();
+		try {
+			this.bytesPerSecond = Math.max(UNLIMITED, bytesPerSecond);
+			available = Math.min(available, burst());
+			refilled = System.nanoTime();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean isLimited() {
+		return bytesPerSecond > UNLIMITED;
+	}
+
+	/**
+	 * @return how many bytes to read at once, at most {@code maximum}
+	 */
+	int chunkSize(int maximum) {
+		long limit = bytesPerSecond;
+		if (limit <= UNLIMITED) {
+			return maximum;
+		}
+		return (int) Math.max(Math.min(MIN_CHUNK_SIZE, maximum), Math.min(maximum, limit / CHUNKS_PER_SECOND));
+	}
+
+	/**
+	 * Takes {@code bytes} tokens, sleeping as long as it takes the bucket to
+	 * refill them at the current rate.
+	 */
+	void acquire(long bytes) throws IOException {
+		if (bytes <= 0L || bytesPerSecond <= UNLIMITED) {
+			return;
+		}
+		long waitNanos;
+		lock.lock();
+		try {
+			long limit = bytesPerSecond;
+			if (limit <= UNLIMITED) {
+				return;
+			}
+			long now = System.nanoTime();
+			available = Math.min(burst(), available + (now - refilled) * (double) limit / TimeUnit.SECONDS.toNanos(1));
+			refilled = now;
+			available -= bytes;
+			waitNanos = available < 0.0 ? (long) (-available * TimeUnit.SECONDS.toNanos(1) / limit) : 0L;
+		} finally {
+			lock.unlock();
+		}
+		if (waitNanos > 0L) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Transfer interrupted", ex);
+			}
+		}
+	}
+
+	private double burst() {
+		return (double) Math.max(MIN_CHUNK_SIZE, bytesPerSecond / CHUNKS_PER_SECOND);
+	}
+}
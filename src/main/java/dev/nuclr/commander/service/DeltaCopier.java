@@ -0,0 +1,103 @@
+package dev.nuclr.commander.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Checksum;
+
+/**
+ * Brings an existing target file up to date with its source by rewriting only
+ * the blocks that differ.
+ *
+ * <p>
+ * Both files are read block by block at the same offsets and a block is
+ * written only when its bytes differ from the source, so an image or database
+ * of which a few megabytes changed in place costs two sequential reads and a
+ * handful of positional writes instead of rewriting the whole file. The target
+ * is updated in place and finally cut to the source length. Content that moved
+ * to another offset has to be written at its new position anyway, so blocks
+ * are only ever matched at the offset they are written to.
+ */
+final class DeltaCopier {
+
+	// Below this size a plain copy is as fast as reading the target first.
+	static final long MIN_FILE_SIZE = 64L * 1024 * 1024;
+	static final int BLOCK_SIZE = 1024 * 1024;
+
+	private DeltaCopier() {
+	}
+
+	/**
+	 * Receives cancellation checks, throttling and the outcome of every compared
+	 * block.
+	 */
+	interface Listener {
+		void checkCancelled() throws IOException;
+
+		void throttle(long bytes) throws IOException;
+
+		void compared(long bytes, boolean rewritten);
+	}
+
+	/**
+	 * @param checksum receives every source byte when the copy is verified, or
+	 *                 {@code null}
+	 */
+	static void copy(FileChannel input, FileChannel output, TransferBufferPool pool, Checksum checksum, Listener listener) throws IOException {
+		ByteBuffer source = pool.acquire(BLOCK_SIZE);
+		ByteBuffer target = pool.acquire(BLOCK_SIZE);
+		try {
+			copy(input, output, source, target, checksum, listener);
+		} finally {
+			pool.release(source);
+			pool.release(target);
+		}
+	}
+
+	private static void copy(
+			FileChannel input,
+			FileChannel output,
+			ByteBuffer source,
+			ByteBuffer target,
+			Checksum checksum,
+			Listener listener) throws IOException {
+		long size = input.size();
+		long targetSize = output.size();
+		long position = 0L;
+		while (position < size) {
+			listener.checkCancelled();
+			int length = (int) Math.min(BLOCK_SIZE, size - position);
+			listener.throttle(length);
+			source.clear().limit(length);
+			readFully(input, source, position);
+			source.flip();
+			if (checksum != null) {
+				checksum.update(source.duplicate());
+			}
+
+			boolean equal = false;
+			if (position + length <= targetSize) {
+				target.clear().limit(length);
+				readFully(output, target, position);
+				target.flip();
+				equal = source.equals(target);
+			}
+			if (!equal) {
+				while (source.hasRemaining()) {
+					output.write(source, position + source.position());
+				}
+			}
+			listener.compared(length, !equal);
+			position += length;
+		}
+		output.truncate(size);
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("File changed while it was being copied");
+			}
+		}
+	}
+}
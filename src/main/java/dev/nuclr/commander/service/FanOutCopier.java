@@ -0,0 +1,240 @@
+package dev.nuclr.commander.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Checksum;
+
+/**
+ * Copies one source file to several targets while reading it only once.
+ *
+ * <p>
+ * A reader fills blocks from the source and hands every block to one write
+ * queue per target. Each target is drained by its own virtual thread, so a slow
+ * target only holds on to the blocks it has not written yet instead of stalling
+ * the other writers on every block. A block goes back to the free list once all
+ * writers are done with it; the number of blocks bounds the memory used and how
+ * far the reader may run ahead of the slowest target.
+ */
+final class FanOutCopier {
+
+	static final int BLOCK_COUNT = 8;
+	// Bounds the blocks in flight per copy whatever block size the pool hands out.
+	static final long MAX_BUFFERED_BYTES = 8L * 1024 * 1024;
+
+	private static final Block END = new Block(null, 0);
+
+	private FanOutCopier() {
+	}
+
+	/**
+	 * Receives cancellation checks and throttling from the reader and progress
+	 * from every writer thread.
+	 */
+	interface Listener {
+		void checkCancelled() throws IOException;
+
+		void throttle(long bytes) throws IOException;
+
+		void written(Path targetPath, long bytes);
+	}
+
+	/**
+	 * @param checksum receives every source byte when the copy is verified, or
+	 *                 {@code null}
+	 */
+	static void copy(
+			Path sourcePath,
+			long sourceSize,
+			List<Path> targetPaths,
+			TransferBufferPool pool,
+			Checksum checksum,
+			Listener listener) throws IOException {
+		int blockSize = pool.blockSize(sourceSize);
+		long blocksNeeded = Math.min(MAX_BUFFERED_BYTES / blockSize, sourceSize / blockSize + 1L);
+		int blockCount = (int) Math.max(2L, Math.min(BLOCK_COUNT, blocksNeeded));
+		BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(blockCount);
+		for (int i = 0; i < blockCount; i++) {
+			free.add(pool.acquire(blockSize));
+		}
+		long started = System.nanoTime();
+		try {
+			copy(sourcePath, targetPaths, free, checksum, listener);
+			pool.recordThroughput(blockSize, sourceSize, System.nanoTime() - started);
+		} finally {
+			// Blocks still queued for a failed writer are left to the garbage collector.
+			free.forEach(pool::release);
+		}
+	}
+
+	private static void copy(
+			Path sourcePath,
+			List<Path> targetPaths,
+			BlockingQueue<ByteBuffer> free,
+			Checksum checksum,
+			Listener listener) throws IOException {
+		List<Writer> writers = new ArrayList<>(targetPaths.size());
+		try (ReadableByteChannel input = Files.newByteChannel(sourcePath, StandardOpenOption.READ)) {
+			for (Path targetPath : targetPaths) {
+				writers.add(new Writer(targetPath, Files.newByteChannel(
+						targetPath,
+						StandardOpenOption.WRITE,
+						StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING), free, listener));
+			}
+			writers.forEach(Writer::start);
+
+			while (true) {
+				listener.checkCancelled();
+				rethrowFailure(writers);
+				ByteBuffer buffer = free.poll(100, TimeUnit.MILLISECONDS);
+				if (buffer == null) {
+					continue;
+				}
+				buffer.clear();
+				int read = input.read(buffer);
+				if (read < 0) {
+					free.add(buffer);
+					break;
+				}
+				listener.throttle(read);
+				buffer.flip();
+				if (checksum != null) {
+					checksum.update(buffer.duplicate());
+				}
+				Block block = new Block(buffer, writers.size());
+				for (Writer writer : writers) {
+					writer.queue.add(block);
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Transfer interrupted", ex);
+		} finally {
+			finish(writers);
+		}
+		rethrowFailure(writers);
+	}
+
+	private static void finish(List<Writer> writers) throws IOException {
+		for (Writer writer : writers) {
+			writer.queue.add(END);
+		}
+		IOException closeFailure = null;
+		for (Writer writer : writers) {
+			writer.join();
+			try {
+				writer.output.close();
+			} catch (IOException ex) {
+				closeFailure = closeFailure != null ? closeFailure : ex;
+			}
+		}
+		if (closeFailure != null) {
+			throw closeFailure;
+		}
+	}
+
+	private static void rethrowFailure(List<Writer> writers) throws IOException {
+		for (Writer writer : writers) {
+			if (writer.failure != null) {
+				throw writer.failure;
+			}
+		}
+	}
+
+	private record Block(ByteBuffer buffer, AtomicInteger owners) {
+
+		private Block(ByteBuffer buffer, int owners) {
+			this(buffer, new AtomicInteger(owners));
+		}
+
+		private boolean release() {
+			return owners.decrementAndGet() == 0;
+		}
+	}
+
+	private static final class Writer {
+		private final Path targetPath;
+		private final SeekableByteChannel output;
+		private final BlockingQueue<ByteBuffer> free;
+		private final Listener listener;
+		private final BlockingQueue<Block> queue = new LinkedBlockingQueue<>();
+		private volatile IOException failure;
+		private Thread thread;
+
+		private Writer(Path targetPath, SeekableByteChannel output, BlockingQueue<ByteBuffer> free, Listener listener) {
+			this.targetPath = targetPath;
+			this.output = output;
+			this.free = free;
+			this.listener = listener;
+		}
+
+		private void start() {
+			thread = Thread.ofVirtual().name("transfer-fan-out").start(this::drain);
+		}
+
+		private void join() {
+			if (thread == null) {
+				return;
+			}
+			boolean interrupted = false;
+			while (true) {
+				try {
+					thread.join();
+					break;
+				} catch (InterruptedException ex) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private void drain() {
+			while (true) {
+				Block block;
+				try {
+					block = queue.take();
+				} catch (InterruptedException ex) {
+					failure = new IOException("Transfer interrupted", ex);
+					return;
+				}
+				if (block == END) {
+					return;
+				}
+				try {
+					// After a failure keep releasing blocks so the reader never starves.
+					if (failure == null) {
+						write(block.buffer().duplicate());
+					}
+				} catch (IOException ex) {
+					failure = ex;
+				} finally {
+					if (block.release()) {
+						free.add(block.buffer());
+					}
+				}
+			}
+		}
+
+		private void write(ByteBuffer buffer) throws IOException {
+			long bytes = buffer.remaining();
+			while (buffer.hasRemaining()) {
+				output.write(buffer);
+			}
+			listener.written(targetPath, bytes);
+		}
+	}
+}
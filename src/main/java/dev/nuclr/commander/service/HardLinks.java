@@ -0,0 +1,314 @@
+package dev.nuclr.commander.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Files of one transfer that share their contents on the target as hard links
+ * instead of separate copies.
+ *
+ * <p>
+ * Sources that are hard-linked to each other carry the same
+ * {@link TransferPlan.Entry#linkKey() link key}. The first of them is copied
+ * and the others become links to its target in every destination where it
+ * has one, so an inode is read and written once and the links survive the
+ * transfer. Links that show up while that copy is still running wait for it
+ * and are made by the task that copied it.
+ *
+ * <p>
+ * On request, files that are merely identical are linked as well. A file
+ * about to be copied claims its contents, a few files per size; a later file
+ * of a size seen before is hashed, and so are the claimed sources, each only
+ * once and only when they are compared. A file identical to one that is still
+ * being copied waits for that copy and links to it, or copies itself if that
+ * copy fails. A link the target file system refuses falls back to a copy, so
+ * the mode costs nothing but the hashing where links are not supported.
+ *
+ * <p>
+ * Both lookups are bounded. An inode whose links are far apart in a very large
+ * tree may be copied again once it has been forgotten, and files beyond
+ * {@link #MAX_CLAIMS} only link to files claimed before; the copies stay
+ * correct either way.
+ */
+final class HardLinks {
+
+	// Files of one size that are compared with later ones; further files of that size are only copied.
+	static final int MAX_CANDIDATES_PER_SIZE = 8;
+	// Bounds what a transfer of millions of files keeps; later files are linked or compared less.
+	static final int MAX_TRACKED_INODES = 64 * 1024;
+	static final int MAX_CLAIMS = 64 * 1024;
+
+	private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+	// Touched by the walk thread only; the inodes seen longest ago are forgotten first.
+	private final Map<Object, Group> inodes = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Object, Group> eldest) {
+			return size() > MAX_TRACKED_INODES;
+		}
+	};
+	// Claimed files by size; guarded by itself, each list by itself.
+	private final Map<Long, List<Candidate>> contents = new HashMap<>();
+	private int claims;
+
+	/**
+	 * Links or copies one target of a file.
+	 */
+	interface Link {
+		Path target();
+
+		/**
+		 * @return the file {@link #target()} becomes a link to
+		 */
+		Path existing();
+
+		/**
+		 * Called once the link is in place.
+		 */
+		void linked() throws IOException;
+
+		/**
+		 * Called instead of {@link #linked()} when the link could not be made.
+		 */
+		void copy() throws IOException;
+	}
+
+	/**
+	 * @return the group of sources sharing the inode {@code key}, or
+	 *         {@code null} for the first of them; walk thread only
+	 */
+	Group inode(Object key) {
+		return inodes.get(key);
+	}
+
+	/**
+	 * Registers the first source of the inode {@code key}; walk thread only.
+	 *
+	 * @param targets where that source is copied, by destination index
+	 */
+	Group addInode(Object key, Map<Integer, Path> targets) {
+		Group group = new Group(targets);
+		inodes.put(key, group);
+		return group;
+	}
+
+	/**
+	 * Looks for a file with the same contents as {@code source} among the files
+	 * of its size that were claimed before. When there is none, {@code source}
+	 * is claimed with {@code targets} and the caller reports the outcome of its
+	 * copy with {@link Content#copied}.
+	 *
+	 * @param targets where {@code source} is copied, by destination index
+	 */
+	Content content(Path source, long size, Map<Integer, Path> targets) throws IOException {
+		List<Candidate> sameSize;
+		synchronized (contents) {
+			sameSize = contents.get(size);
+			if (sameSize == null) {
+				if (claims >= MAX_CLAIMS) {
+					return new Content(null, null);
+				}
+				sameSize = new ArrayList<>(1);
+				contents.put(size, sameSize);
+			}
+		}
+		Candidate match = null;
+		Candidate claimed = null;
+		// Files of one size are compared one at a time, so identical files cannot both claim their contents.
+		synchronized (sameSize) {
+			byte[] hash = null;
+			for (Candidate candidate : sameSize) {
+				if (hash == null) {
+					hash = hash(source);
+				}
+				if (Arrays.equals(hash, candidate.hash())) {
+					match = candidate;
+					break;
+				}
+			}
+			if (match == null && sameSize.size() < MAX_CANDIDATES_PER_SIZE && claim()) {
+				claimed = new Candidate(source, targets, hash);
+				sameSize.add(claimed);
+			}
+		}
+		if (match != null && match.awaitCopied()) {
+			return new Content(match.targets, null);
+		}
+		return new Content(null, claimed);
+	}
+
+	private boolean claim() {
+		synchronized (contents) {
+			if (claims >= MAX_CLAIMS) {
+				return false;
+			}
+			claims++;
+			return true;
+		}
+	}
+
+	/**
+	 * Replaces {@link Link#target()} with a link to {@link Link#existing()},
+	 * copying instead when the file system refuses.
+	 */
+	static void link(Link link) throws IOException {
+		try {
+			Files.deleteIfExists(link.target());
+			Files.createLink(link.target(), link.existing());
+		} catch (IOException | UnsupportedOperationException ex) {
+			link.copy();
+			return;
+		}
+		link.linked();
+	}
+
+	private static byte[] hash(Path path) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+		byte[] buffer = new byte[HASH_BUFFER_SIZE];
+		try (InputStream input = Files.newInputStream(path)) {
+			int read;
+			while ((read = input.read(buffer)) >= 0) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Sources sharing one inode. Links wait in the group until its first source
+	 * has been copied.
+	 */
+	static final class Group {
+		private final Map<Integer, Path> targets;
+		private List<Link> pending = new ArrayList<>();
+
+		private Group(Map<Integer, Path> targets) {
+			this.targets = targets;
+		}
+
+		/**
+		 * @return the target of the first source in destination
+		 *         {@code destinationIndex}, or {@code null} if it has none there
+		 */
+		Path target(int destinationIndex) {
+			return targets.get(destinationIndex);
+		}
+
+		/**
+		 * Makes {@code link} now if the first source has been copied, otherwise
+		 * once it has.
+		 */
+		void link(Link link) throws IOException {
+			synchronized (this) {
+				if (pending != null) {
+					pending.add(link);
+					return;
+				}
+			}
+			HardLinks.link(link);
+		}
+
+		/**
+		 * Called once the first source has been copied; makes the links that
+		 * waited for it.
+		 */
+		void copied() throws IOException {
+			List<Link> links;
+			synchronized (this) {
+				links = pending;
+				pending = null;
+			}
+			for (Link link : links) {
+				HardLinks.link(link);
+			}
+		}
+	}
+
+	/**
+	 * The outcome of {@link #content}.
+	 */
+	static final class Content {
+		private final Map<Integer, Path> duplicate;
+		private final Candidate claimed;
+
+		private Content(Map<Integer, Path> duplicate, Candidate claimed) {
+			this.duplicate = duplicate;
+			this.claimed = claimed;
+		}
+
+		/**
+		 * @return the targets of a copied file with the same contents, by
+		 *         destination index, or {@code null}
+		 */
+		Map<Integer, Path> duplicate() {
+			return duplicate;
+		}
+
+		/**
+		 * Reports whether the file was copied; files waiting to link to it copy
+		 * themselves if it was not. Must be called, and only once, whenever
+		 * {@link #duplicate()} is {@code null}.
+		 */
+		void copied(boolean copied) {
+			if (claimed != null) {
+				claimed.copied.complete(copied);
+			}
+		}
+	}
+
+	/**
+	 * A claimed file, hashed from its source when first compared.
+	 */
+	private static final class Candidate {
+		private final Path source;
+		private final Map<Integer, Path> targets;
+		private final CompletableFuture<Boolean> copied = new CompletableFuture<>();
+		private byte[] hash;
+		private boolean unreadable;
+
+		private Candidate(Path source, Map<Integer, Path> targets, byte[] hash) {
+			this.source = source;
+			this.targets = targets;
+			this.hash = hash;
+		}
+
+		private synchronized byte[] hash() {
+			if (hash == null && !unreadable) {
+				try {
+					hash = HardLinks.hash(source);
+				} catch (IOException ex) {
+					unreadable = true;
+				}
+			}
+			return hash;
+		}
+
+		private boolean awaitCopied() throws IOException {
+			try {
+				return copied.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Transfer interrupted", ex);
+			} catch (ExecutionException ex) {
+				return false;
+			}
+		}
+	}
+}
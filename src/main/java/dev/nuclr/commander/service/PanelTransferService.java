@@ -1,25 +1,41 @@
 package dev.nuclr.commander.service;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.FileVisitOption;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.CopyOption;
+import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.DosFileAttributeView;
 import java.nio.file.attribute.PosixFileAttributeView;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
 
 import org.springframework.stereotype.Service;
 
@@ -28,7 +44,17 @@ import dev.nuclr.platform.plugin.NuclrResourcePath;
 @Service
 public class PanelTransferService {
 
-	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+	// Upper bound per transferTo call so cancellation and progress stay responsive.
+	private static final long CHANNEL_TRANSFER_CHUNK = 8L * 1024 * 1024;
+	// FAT and some network shares only keep modification times to two seconds.
+	private static final long SYNC_TIME_TOLERANCE_MILLIS = 2_000L;
+	private static final int ARCHIVE_OUTPUT_BUFFER_SIZE = 1024 * 1024;
+	// About 15 progress snapshots a second, however fast the copy runs.
+	static final long PROGRESS_INTERVAL_MILLIS = 66L;
+	static final long THROUGHPUT_SMOOTHING_NANOS = 3_000_000_000L;
+
+	private final TransferBufferPool bufferPool = new TransferBufferPool();
+	private final BandwidthLimiter globalBandwidthLimiter = new BandwidthLimiter();
 
 	public void copy(List<NuclrResourcePath> sources, Path destinationDirectory) throws IOException {
 		transfer(sources, new TransferOptions(destinationDirectory, ConflictResolution.OVERWRITE, null), false);
@@ -46,98 +72,971 @@ public class PanelTransferService {
 		transfer(sources, options, true);
 	}
 
+	/**
+	 * @return whether {@link #pack} can write an archive with the name of
+	 *         {@code archiveFile}
+	 */
+	public static boolean isArchiveTarget(Path archiveFile) {
+		return archiveFile != null && ArchiveWriter.Format.of(archiveFile) != null;
+	}
+
+	/**
+	 * Packs the sources into a ZIP or a gzip-compressed TAR file, chosen by the
+	 * extension of {@code archiveFile}. The sources are walked and written in
+	 * one pass straight into the archive while their contents are compressed on
+	 * all cores. The filter, symbolic link handling, bandwidth limit, progress
+	 * and cancellation of {@code options} apply, and its conflict resolution
+	 * decides about an existing archive file; its destinations are ignored. A
+	 * pack that fails or is cancelled removes the incomplete archive.
+	 */
+	public void pack(List<NuclrResourcePath> sources, Path archiveFile, TransferOptions options) throws IOException {
+		ArchiveWriter.Format format = ArchiveWriter.Format.of(archiveFile);
+		if (format == null) {
+			throw new IOException("Unsupported archive type: " + archiveFile);
+		}
+		Path parent = archiveFile.toAbsolutePath().getParent();
+		if (parent == null || !Files.isDirectory(parent)) {
+			throw new IOException("Destination directory is not available");
+		}
+		List<Path> roots = sources == null ? List.of() : sources.stream()
+				.filter(Objects::nonNull)
+				.map(NuclrResourcePath::getPath)
+				.filter(Objects::nonNull)
+				.toList();
+		if (roots.isEmpty()) {
+			return;
+		}
+		Path targetPath = resolveFileTargetPath(roots.get(0), archiveFile, options);
+		if (targetPath == null) {
+			return;
+		}
+
+		try (TransferPlan plan = TransferPlan.start(
+				roots,
+				List.of(),
+				followSymbolicLinks(options),
+				false,
+				transferFilter(options),
+				options != null ? options.cancellationToken() : null);
+				ProgressTracker tracker = new ProgressTracker(options, plan, 1, 0L)) {
+			tracker.start(targetPath);
+			try {
+				packPlan(plan, format, targetPath, options, tracker);
+			} catch (IOException | RuntimeException ex) {
+				try {
+					Files.deleteIfExists(targetPath);
+				} catch (IOException deleteFailure) {
+					ex.addSuppressed(deleteFailure);
+				}
+				throw ex;
+			}
+			tracker.finish();
+		}
+	}
+
+	private void packPlan(
+			TransferPlan plan,
+			ArchiveWriter.Format format,
+			Path targetPath,
+			TransferOptions options,
+			ProgressTracker tracker) throws IOException {
+		try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(targetPath), ARCHIVE_OUTPUT_BUFFER_SIZE);
+				ArchiveWriter writer = ArchiveWriter.open(format, output, new ArchiveWriter.Listener() {
+					@Override
+					public void checkCancelled() throws IOException {
+						PanelTransferService.this.checkCancelled(options);
+					}
+
+					@Override
+					public void throttle(long bytes) throws IOException {
+						PanelTransferService.this.throttle(options, bytes);
+					}
+
+					@Override
+					public void read(Path source, long bytes) {
+						tracker.bytesTransferred(bytes, source, targetPath);
+					}
+				})) {
+			TransferPlan.Cursor cursor = plan.cursor();
+			TransferPlan.Entry entry;
+			while ((entry = cursor.next()) != null) {
+				checkCancelled(options);
+				Path sourcePath = entry.source();
+				String name = ArchiveWriter.entryName(plan.roots().get(entry.rootIndex()), sourcePath);
+				// The archive may be written into one of the directories being packed.
+				if (name.isEmpty() || entry.kind() == TransferPlan.Kind.FILE
+						&& Objects.equals(sourcePath.getFileName(), targetPath.getFileName()) && isSamePath(sourcePath, targetPath)) {
+					tracker.skipEntry(entry, targetPath);
+					continue;
+				}
+				tracker.report(sourcePath, targetPath);
+				switch (entry.kind()) {
+					case DIRECTORY -> writer.directory(name, sourcePath);
+					case FILE -> writer.file(name, sourcePath);
+					case SYMBOLIC_LINK -> writer.symbolicLink(name, sourcePath);
+				}
+				if (entry.kind() != TransferPlan.Kind.DIRECTORY) {
+					tracker.fileCompleted(sourcePath, targetPath);
+				}
+			}
+			writer.finish();
+		}
+	}
+
+	/**
+	 * Deletes the sources with everything below them. Files go away
+	 * concurrently, directories once they are empty; progress counts deleted
+	 * entries as files and freed bytes as transferred bytes. A cancelled delete
+	 * stops promptly and leaves whatever was not reached yet.
+	 */
+	public void delete(
+			List<NuclrResourcePath> sources,
+			ProgressListener progressListener,
+			CancellationToken cancellationToken) throws IOException {
+		if (sources == null || sources.isEmpty()) {
+			return;
+		}
+		try (RecursiveDeleter deleter = new RecursiveDeleter(progressListener, cancellationToken)) {
+			for (NuclrResourcePath source : sources) {
+				if (source != null && source.getPath() != null) {
+					deleter.delete(source.getPath());
+				}
+			}
+			deleter.scanComplete();
+		}
+	}
+
+	/**
+	 * Lists the transfers that were interrupted by a crash, a restart or a
+	 * failure and can be picked up again with {@link #resume}.
+	 */
+	public List<PendingTransfer> pendingTransfers() {
+		return TransferJournal.pending().stream()
+				.map(pending -> new PendingTransfer(
+						pending.id(),
+						pending.header().move(),
+						pending.header().sources().stream().map(Path::of).toList(),
+						pending.header().destinations().stream().map(Path::of).toList(),
+						Instant.ofEpochMilli(pending.header().started())))
+				.toList();
+	}
+
+	/**
+	 * Continues an interrupted transfer with its original options. Files that
+	 * were completed are skipped once their size still matches, partially written
+	 * files continue from their last checkpoint when the bytes before it match
+	 * the source, and everything else is transferred as usual.
+	 */
+	public void resume(
+			PendingTransfer pending,
+			ConflictResolver conflictResolver,
+			ProgressListener progressListener,
+			CancellationToken cancellationToken,
+			BandwidthLimiter bandwidthLimiter) throws IOException {
+		TransferJournal journal = TransferJournal.open(pending.id());
+		TransferJournal.Header header = journal.header();
+		List<Path> destinationDirectories = header.destinations().stream().map(Path::of).toList();
+		TransferOptions options = new TransferOptions(
+				null,
+				destinationDirectories,
+				header.conflictResolution(),
+				conflictResolver,
+				progressListener,
+				cancellationToken,
+				bandwidthLimiter,
+				header.accessPolicy(),
+				header.preserveTimestamps(),
+				header.followSymbolicLinks(),
+				header.compareContents(),
+				header.deltaCopy(),
+				header.verify(),
+				header.linkDuplicates(),
+				header.diskOrder(),
+				header.filterExpression(),
+				null);
+		try {
+			checkDestinations(destinationDirectories);
+		} catch (IOException ex) {
+			journal.close();
+			throw ex;
+		}
+		// Sources that are gone were already moved in full.
+		List<Path> roots = header.sources().stream()
+				.map(Path::of)
+				.filter(path -> Files.exists(path, LinkOption.NOFOLLOW_LINKS))
+				.toList();
+		transfer(roots, destinationDirectories, options, header.move(), journal);
+	}
+
+	/**
+	 * Forgets an interrupted transfer; whatever it already wrote stays in place.
+	 */
+	public void discard(PendingTransfer pending) throws IOException {
+		TransferJournal.discard(pending.id());
+	}
+
+	/**
+	 * @return hit rate, footprint and current block size of the copy buffers
+	 *         shared by all transfers
+	 */
+	public BufferPoolStats bufferPoolStats() {
+		return bufferPool.stats();
+	}
+
+	/**
+	 * @return the limit in bytes per second shared by all transfers, or
+	 *         {@link BandwidthLimiter#UNLIMITED}
+	 */
+	public long getGlobalBandwidthLimit() {
+		return globalBandwidthLimiter.getLimit();
+	}
+
+	/**
+	 * Caps the combined throughput of all transfers, including those already
+	 * running. Each transfer is additionally held to the limit of its own
+	 * {@link TransferOptions#bandwidthLimiter()}.
+	 */
+	public void setGlobalBandwidthLimit(long bytesPerSecond) {
+		globalBandwidthLimiter.setLimit(bytesPerSecond);
+	}
+
 	private void transfer(List<NuclrResourcePath> sources, TransferOptions options, boolean deleteSource) throws IOException {
 		if (sources == null || sources.isEmpty()) {
 			return;
 		}
 		List<Path> destinationDirectories = destinationDirectories(options);
+		checkDestinations(destinationDirectories);
+		List<Path> roots = sources.stream()
+				.filter(Objects::nonNull)
+				.map(NuclrResourcePath::getPath)
+				.filter(Objects::nonNull)
+				.toList();
+		transfer(roots, destinationDirectories, options, deleteSource,
+				TransferJournal.create(roots, destinationDirectories, options, deleteSource));
+	}
+
+	private void transfer(
+			List<Path> roots,
+			List<Path> destinationDirectories,
+			TransferOptions options,
+			boolean deleteSource,
+			TransferJournal journal) throws IOException {
+		try {
+			transferRoots(roots, destinationDirectories, options, deleteSource, journal);
+			journal.delete();
+		} catch (IOException | RuntimeException ex) {
+			// Failures stay resumable; a transfer the user cancelled does not.
+			if (isCancelled(options)) {
+				journal.delete();
+			}
+			throw ex;
+		} finally {
+			journal.close();
+		}
+	}
+
+	private void checkDestinations(List<Path> destinationDirectories) throws IOException {
 		for (Path destinationDirectory : destinationDirectories) {
 			if (destinationDirectory == null || !Files.isDirectory(destinationDirectory)) {
 				throw new IOException("Destination directory is not available");
 			}
 		}
+	}
 
-		ProgressTracker tracker = new ProgressTracker(options, countFiles(sources, options), countBytes(sources, options));
-		tracker.report(null, destinationDirectories.get(0));
+	private void transferRoots(
+			List<Path> roots,
+			List<Path> destinationDirectories,
+			TransferOptions options,
+			boolean deleteSource,
+			TransferJournal journal) throws IOException {
+		List<Path> renamedRoots = deleteSource && destinationDirectories.size() == 1
+				? renameRoots(roots, destinationDirectories.get(0), options)
+				: List.of();
+		if (!renamedRoots.isEmpty()) {
+			roots = roots.stream().filter(root -> !renamedRoots.contains(root)).toList();
+		}
 
-		for (int destinationIndex = 0; destinationIndex < destinationDirectories.size(); destinationIndex++) {
-			Path destinationDirectory = destinationDirectories.get(destinationIndex);
-			for (NuclrResourcePath source : sources) {
-				if (source == null || source.getPath() == null) {
-					continue;
+		try (TransferVerifier verifier = TransferVerifier.create(options);
+				TransferPlan plan = startPlan(roots, destinationDirectories, options);
+				TransferScheduler scheduler = new TransferScheduler(options != null && options.diskOrder());
+				ProgressTracker tracker = new ProgressTracker(options, plan, destinationDirectories.size(), renamedRoots.size())) {
+			tracker.start(destinationDirectories.get(0));
+			if (conflictResolution(options) == ConflictResolution.ASK && options.conflictResolver() != null) {
+				options = resolveConflictsUpFront(plan, journal, destinationDirectories, options);
+				// The plan does not keep what it has handed out, so the copy walks the sources again.
+				try (TransferPlan copyPlan = startPlan(roots, destinationDirectories, options)) {
+					transferPlan(copyPlan, scheduler, journal, verifier, destinationDirectories, options, tracker, deleteSource);
 				}
-				checkCancelled(options);
+			} else {
+				transferPlan(plan, scheduler, journal, verifier, destinationDirectories, options, tracker, deleteSource);
+			}
+			tracker.finish();
+		}
+	}
+
+	private TransferPlan startPlan(List<Path> roots, List<Path> destinationDirectories, TransferOptions options) {
+		return TransferPlan.start(
+				roots,
+				destinationDirectories,
+				followSymbolicLinks(options),
+				conflictResolution(options) == ConflictResolution.SYNC,
+				transferFilter(options),
+				options != null ? options.cancellationToken() : null);
+	}
 
-				Path sourcePath = source.getPath();
-				Path targetPath = destinationDirectory.resolve(targetName(sourcePath));
-				if (isSamePath(sourcePath, targetPath)) {
-					tracker.skipPath(sourcePath, targetPath, options);
+	/**
+	 * Waits for the scan, collects every target that already existed and hands
+	 * them to {@link ConflictResolver#resolveAll} as one batch, so the copy that
+	 * follows runs without stopping for questions. The scan found the conflicts
+	 * from one listing per target directory. Targets that show up only while
+	 * copying are still asked about one by one.
+	 *
+	 * @return options whose conflict resolver answers from the batch
+	 */
+	private TransferOptions resolveConflictsUpFront(
+			TransferPlan plan,
+			TransferJournal journal,
+			List<Path> destinationDirectories,
+			TransferOptions options) throws IOException {
+		List<Conflict> conflicts = new ArrayList<>();
+		TransferPlan.Cursor cursor = plan.cursor();
+		int tracked = Math.min(destinationDirectories.size(), TransferPlan.MAX_TRACKED_DESTINATIONS);
+		TransferPlan.Entry entry;
+		while ((entry = cursor.next()) != null) {
+			checkCancelled(options);
+			if (entry.kind() == TransferPlan.Kind.DIRECTORY && !entry.root()) {
+				// Directories below a root merge into existing ones.
+				continue;
+			}
+			Path sourceRoot = plan.roots().get(entry.rootIndex());
+			for (int index = 0; index < tracked; index++) {
+				if (!entry.conflictsIn(index) || journal.rootTarget(sourceRoot, index) != null || journal.file(entry.source(), index) != null) {
+					continue;
+				}
+				Path rootTarget = destinationDirectories.get(index).resolve(targetName(sourceRoot));
+				if (isSamePath(sourceRoot, rootTarget)) {
+					continue;
+				}
+				Path targetPath = entry.root()
+						? rootTarget
+						: resolveInTargetFileSystem(rootTarget, sourceRoot.relativize(entry.source()));
+				BasicFileAttributes targetAttrs;
+				try {
+					targetAttrs = Files.readAttributes(targetPath, BasicFileAttributes.class);
+				} catch (IOException ex) {
 					continue;
 				}
-				if (Files.isDirectory(sourcePath) && isNestedWithin(sourcePath, targetPath)) {
-					throw new IOException("Cannot copy or move a directory into itself: " + sourcePath);
+				boolean directory = entry.kind() == TransferPlan.Kind.DIRECTORY && targetAttrs.isDirectory();
+				if (targetAttrs.isDirectory() && !directory) {
+					// Replacing a directory with a file fails whatever the answer.
+					continue;
+				}
+				conflicts.add(new Conflict(
+						entry.source(),
+						targetPath,
+						directory,
+						entry.size(),
+						entry.lastModified(),
+						directory ? 0L : targetAttrs.size(),
+						targetAttrs.lastModifiedTime().toMillis()));
+			}
+		}
+		if (conflicts.isEmpty()) {
+			return options;
+		}
+
+		List<ConflictResolution> resolutions = options.conflictResolver().resolveAll(List.copyOf(conflicts));
+		checkCancelled(options);
+		Map<Path, ConflictResolution> decisions = new HashMap<>();
+		for (int i = 0; i < conflicts.size(); i++) {
+			ConflictResolution resolution = resolutions != null && i < resolutions.size() ? resolutions.get(i) : null;
+			// ASK leaves the conflict to be decided when the copy reaches it.
+			if (resolution != ConflictResolution.ASK) {
+				decisions.put(conflicts.get(i).targetPath(), resolution != null ? resolution : ConflictResolution.SKIP);
+			}
+		}
+		ConflictResolver fallback = options.conflictResolver();
+		ConflictResolver batched = (sourcePath, targetPath, directory) -> {
+			ConflictResolution decided = decisions.get(targetPath);
+			return decided != null ? decided : fallback.resolve(sourcePath, targetPath, directory);
+		};
+		return options.withCallbacks(batched, options.progressListener(), options.cancellationToken());
+	}
+
+	/**
+	 * Runs the plan into every destination in a single pass. Directories are
+	 * created here in walk order, before any file below them is handed to the
+	 * scheduler; each file is read once and fanned out to all destinations that
+	 * accept it.
+	 */
+	private void transferPlan(
+			TransferPlan plan,
+			TransferScheduler scheduler,
+			TransferJournal journal,
+			TransferVerifier verifier,
+			List<Path> destinationDirectories,
+			TransferOptions options,
+			ProgressTracker tracker,
+			boolean deleteSource) throws IOException {
+		TransferPlan.Cursor cursor = plan.cursor();
+		RootTransfer[] roots = new RootTransfer[destinationDirectories.size()];
+		ArchiveExtractor extractor = new ArchiveExtractor();
+		HardLinks hardLinks = new HardLinks();
+		int last = roots.length - 1;
+		TransferPlan.Entry entry;
+		while ((entry = cursor.next()) != null) {
+			checkCancelled(options);
+			if (entry.root()) {
+				// Only the last destination decides about the source, as it did when destinations ran one after another.
+				finishRoot(roots[last], scheduler, extractor, verifier, options, tracker, deleteSource);
+				for (int index = 0; index < roots.length; index++) {
+					roots[index] = startRoot(entry, index, destinationDirectories.get(index), journal, options, deleteSource && index == last);
+				}
+			}
+			transferEntry(entry, roots, scheduler, extractor, hardLinks, journal, verifier, options, tracker);
+		}
+		finishRoot(roots[last], scheduler, extractor, verifier, options, tracker, deleteSource);
+		extractArchives(extractor, scheduler, verifier, options, tracker);
+		scheduler.await();
+	}
+
+	/**
+	 * Moves whole roots with a single rename when the source and destination
+	 * share a device and nothing is in the way. Filtered moves, occupied targets
+	 * and failed renames are left to the planned transfer, which still renames
+	 * entry by entry where it can.
+	 *
+	 * @return the roots that were renamed
+	 */
+	private List<Path> renameRoots(List<Path> roots, Path destinationDirectory, TransferOptions options) throws IOException {
+		if (!transferFilter(options).isEmpty()) {
+			return List.of();
+		}
+		List<Path> renamed = new ArrayList<>();
+		for (Path sourcePath : roots) {
+			checkCancelled(options);
+			Path targetPath = destinationDirectory.resolve(targetName(sourcePath));
+			if (!sameDevice(sourcePath.getParent(), destinationDirectory)
+					|| Files.exists(targetPath, LinkOption.NOFOLLOW_LINKS)
+					|| isNestedWithin(sourcePath, targetPath)) {
+				continue;
+			}
+			if (renamePath(sourcePath, targetPath)) {
+				renamed.add(sourcePath);
+			}
+		}
+		return renamed;
+	}
+
+	private boolean renamePath(Path sourcePath, Path targetPath, CopyOption... fallbackOptions) {
+		try {
+			Files.move(sourcePath, targetPath, StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		} catch (AtomicMoveNotSupportedException ex) {
+			try {
+				Files.move(sourcePath, targetPath, fallbackOptions);
+				return true;
+			} catch (IOException | UnsupportedOperationException fallbackEx) {
+				return false;
+			}
+		} catch (IOException | UnsupportedOperationException ex) {
+			return false;
+		}
+	}
+
+	private boolean sameDevice(Path left, Path right) {
+		if (left == null || right == null || !Objects.equals(left.getFileSystem(), right.getFileSystem())) {
+			return false;
+		}
+		return Objects.equals(TransferScheduler.deviceOf(left), TransferScheduler.deviceOf(right));
+	}
+
+	private RootTransfer startRoot(
+			TransferPlan.Entry entry,
+			int destinationIndex,
+			Path destinationDirectory,
+			TransferJournal journal,
+			TransferOptions options,
+			boolean deleteSource) throws IOException {
+		Path sourcePath = entry.source();
+		Path targetPath = destinationDirectory.resolve(targetName(sourcePath));
+		if (isSamePath(sourcePath, targetPath)) {
+			return new RootTransfer(sourcePath, targetPath, true, false);
+		}
+		if (entry.kind() == TransferPlan.Kind.DIRECTORY && isNestedWithin(sourcePath, targetPath)) {
+			throw new IOException("Cannot copy or move a directory into itself: " + sourcePath);
+		}
+
+		RootTransfer root;
+		Path resumedTargetPath = journal.rootTarget(sourcePath, destinationIndex);
+		if (resumedTargetPath != null) {
+			// The conflict was settled before the interruption; what is there now is ours.
+			root = new RootTransfer(sourcePath, resumedTargetPath, false, false);
+			root.resumed = true;
+		} else {
+			Path resolvedTargetPath = resolveRootTargetPath(sourcePath, targetPath, options);
+			if (resolvedTargetPath == null) {
+				return new RootTransfer(sourcePath, targetPath, true, false);
+			}
+			root = new RootTransfer(sourcePath, resolvedTargetPath, false, !resolvedTargetPath.equals(targetPath));
+			journal.rootStarted(sourcePath, destinationIndex, resolvedTargetPath);
+		}
+		root.renameEntries = deleteSource && sameDevice(sourcePath.getParent(), destinationDirectory);
+		return root;
+	}
+
+	private void finishRoot(
+			RootTransfer root,
+			TransferScheduler scheduler,
+			ArchiveExtractor extractor,
+			TransferVerifier verifier,
+			TransferOptions options,
+			ProgressTracker tracker,
+			boolean deleteSource) throws IOException {
+		if (root != null && deleteSource && !root.skipped && root.copiedEverything) {
+			// The source may only go once every copy below it has landed.
+			extractArchives(extractor, scheduler, verifier, options, tracker);
+			scheduler.await();
+			deleteRecursively(root.sourceRoot, options);
+		}
+	}
+
+	private void transferEntry(
+			TransferPlan.Entry entry,
+			RootTransfer[] roots,
+			TransferScheduler scheduler,
+			ArchiveExtractor extractor,
+			HardLinks hardLinks,
+			TransferJournal journal,
+			TransferVerifier verifier,
+			TransferOptions options,
+			ProgressTracker tracker) throws IOException {
+		Path sourcePath = entry.source();
+		if (entry.kind() == TransferPlan.Kind.DIRECTORY) {
+			for (int index = 0; index < roots.length; index++) {
+				if (!roots[index].skipped) {
+					createDirectory(entry, roots[index], index, options);
 				}
+			}
+			return;
+		}
 
-				Path resolvedTargetPath = resolveRootTargetPath(sourcePath, targetPath, options);
-				if (resolvedTargetPath == null) {
-					tracker.skipPath(sourcePath, targetPath, options);
+		boolean symbolicLink = entry.kind() == TransferPlan.Kind.SYMBOLIC_LINK;
+		List<Integer> targetIndexes = new ArrayList<>(roots.length);
+		List<Path> targetPaths = new ArrayList<>(roots.length);
+		List<TransferJournal.FileEntry> journalEntries = new ArrayList<>(roots.length);
+		List<Path> comparePaths = new ArrayList<>(0);
+		List<TransferJournal.FileEntry> compareEntries = new ArrayList<>(0);
+		Path renameTargetPath = null;
+		for (int index = 0; index < roots.length; index++) {
+			RootTransfer root = roots[index];
+			Path targetPath = root.targetFor(entry);
+			if (root.skipped) {
+				tracker.skipEntry(entry, targetPath);
+				continue;
+			}
+			TransferJournal.FileEntry journaled = root.renameEntries ? null : journal.file(sourcePath, index);
+			if (journaled != null && journaled.completed() && journaled.intact(entry.size(), symbolicLink)) {
+				tracker.skipEntry(entry, journaled.target());
+				continue;
+			}
+			// Conflicts on the root entry were already settled when the root was started.
+			Path resolvedTargetPath;
+			SyncCheck syncCheck = SyncCheck.CHANGED;
+			if (journaled != null) {
+				resolvedTargetPath = journaled.target();
+			} else {
+				boolean targetExists = root.targetExists(entry, targetPath, index, options);
+				if (targetExists && conflictResolution(options) == ConflictResolution.SYNC) {
+					syncCheck = checkSync(entry, root, targetPath, index, options);
+				}
+				if (syncCheck == SyncCheck.UNCHANGED) {
+					tracker.unchangedEntry(entry, targetPath);
 					continue;
 				}
-				boolean copied = copyPath(source, sourcePath, resolvedTargetPath, options, tracker);
-				if (deleteSource && copied && destinationIndex == destinationDirectories.size() - 1) {
-					deleteRecursively(sourcePath);
+				resolvedTargetPath = entry.root()
+						? targetPath
+						: resolveFileTargetPath(sourcePath, targetPath, targetExists, options);
+			}
+			if (resolvedTargetPath == null) {
+				root.copiedEverything = false;
+				tracker.skipEntry(entry, targetPath);
+			} else if (root.renameEntries) {
+				renameTargetPath = resolvedTargetPath;
+			} else if (syncCheck == SyncCheck.COMPARE_CONTENTS) {
+				comparePaths.add(resolvedTargetPath);
+				compareEntries.add(journal.fileStarted(sourcePath, index, resolvedTargetPath));
+			} else {
+				targetIndexes.add(index);
+				targetPaths.add(resolvedTargetPath);
+				journalEntries.add(journaled != null ? journaled : journal.fileStarted(sourcePath, index, resolvedTargetPath));
+			}
+		}
+
+		if (symbolicLink) {
+			for (int index = 0; index < targetPaths.size(); index++) {
+				copySymbolicLink(sourcePath, targetPaths.get(index), options, tracker);
+				journalEntries.get(index).markCompleted();
+			}
+			if (renameTargetPath != null) {
+				moveEntry(entry, renameTargetPath, options, tracker);
+			}
+			return;
+		}
+		if (targetPaths.isEmpty() && comparePaths.isEmpty()) {
+			if (renameTargetPath != null) {
+				moveEntry(entry, renameTargetPath, options, tracker);
+			}
+			return;
+		}
+
+		if (comparePaths.isEmpty() && renameTargetPath == null
+				&& extractor.add(new ArchiveExtractor.Pending(entry, targetPaths, journalEntries))) {
+			return;
+		}
+
+		// Plain copies may share an inode with an earlier source, or on request with identical contents.
+		boolean linkable = comparePaths.isEmpty() && renameTargetPath == null;
+		HardLinks.Group linkGroup = null;
+		if (linkable && entry.linkKey() != null) {
+			HardLinks.Group group = hardLinks.inode(entry.linkKey());
+			if (group == null) {
+				linkGroup = hardLinks.addInode(entry.linkKey(), targetsByIndex(targetIndexes, targetPaths));
+			} else {
+				linkToGroup(entry, group, targetIndexes, targetPaths, journalEntries, scheduler, verifier, options, tracker);
+				if (targetPaths.isEmpty()) {
+					return;
+				}
+			}
+		}
+		boolean linkDuplicates = linkable && options != null && options.linkDuplicates() && entry.size() > 0L;
+		HardLinks.Group copiedGroup = linkGroup;
+
+		// A move renames into its last destination once the other copies have been written.
+		Path moveTargetPath = renameTargetPath;
+		List<Path> devicePaths = new ArrayList<>(targetPaths);
+		devicePaths.addAll(comparePaths);
+		if (moveTargetPath != null) {
+			devicePaths.add(moveTargetPath);
+		}
+		scheduler.submitInDiskOrder(sourcePath, entry.inode(), devicePaths, () -> {
+			try {
+				for (int index = 0; index < comparePaths.size(); index++) {
+					Path comparePath = comparePaths.get(index);
+					if (Files.mismatch(sourcePath, comparePath) == -1L) {
+						// Equal contents: only bring the timestamps in line for the next size/time check.
+						applyAttributes(sourcePath, comparePath, options);
+						compareEntries.get(index).markCompleted();
+						tracker.unchangedEntry(entry, comparePath);
+					} else {
+						targetPaths.add(comparePath);
+						journalEntries.add(compareEntries.get(index));
+					}
+				}
+				HardLinks.Content content = linkDuplicates
+						? linkDuplicate(entry, hardLinks, targetIndexes, targetPaths, journalEntries, verifier, options, tracker)
+						: null;
+				boolean copied = false;
+				try {
+					if (!targetPaths.isEmpty()) {
+						long checksum = copyFile(sourcePath, entry.size(), targetPaths, journalEntries, options, tracker);
+						verifier.verify(sourcePath, targetPaths, checksum);
+					}
+					for (TransferJournal.FileEntry journalEntry : journalEntries) {
+						journalEntry.markCompleted();
+					}
+					copied = true;
+				} finally {
+					if (content != null) {
+						content.copied(copied);
+					}
 				}
+				if (copiedGroup != null) {
+					copiedGroup.copied();
+				}
+				if (moveTargetPath != null) {
+					moveEntry(entry, moveTargetPath, options, tracker);
+				}
+			} catch (RuntimeException ex) {
+				throw new IOException("Failed to copy " + sourcePath, ex);
 			}
+		});
+	}
+
+	/**
+	 * Turns the targets of a source that shares its inode with an earlier one
+	 * into links to that source's targets, in the destinations where it has
+	 * them. The links are made on the scheduler, once the earlier source has
+	 * been copied; the targets are taken out of the lists, which keep the ones
+	 * left to copy.
+	 */
+	private void linkToGroup(
+			TransferPlan.Entry entry,
+			HardLinks.Group group,
+			List<Integer> targetIndexes,
+			List<Path> targetPaths,
+			List<TransferJournal.FileEntry> journalEntries,
+			TransferScheduler scheduler,
+			TransferVerifier verifier,
+			TransferOptions options,
+			ProgressTracker tracker) throws IOException {
+		for (int index = targetPaths.size() - 1; index >= 0; index--) {
+			Path existingPath = group.target(targetIndexes.get(index));
+			if (existingPath == null) {
+				continue;
+			}
+			targetIndexes.remove(index);
+			Path targetPath = targetPaths.remove(index);
+			HardLinks.Link link = hardLink(entry, targetPath, existingPath, journalEntries.remove(index), verifier, options, tracker);
+			scheduler.submit(entry.source(), List.of(targetPath), () -> group.link(link));
 		}
 	}
 
-	private boolean copyPath(
-			NuclrResourcePath source,
-			Path sourcePath,
+	/**
+	 * Links the targets of a file to those of an identical file of this
+	 * transfer, where there is one in the same destination, and takes them out
+	 * of the lists.
+	 */
+	private HardLinks.Content linkDuplicate(
+			TransferPlan.Entry entry,
+			HardLinks hardLinks,
+			List<Integer> targetIndexes,
+			List<Path> targetPaths,
+			List<TransferJournal.FileEntry> journalEntries,
+			TransferVerifier verifier,
+			TransferOptions options,
+			ProgressTracker tracker) throws IOException {
+		checkCancelled(options);
+		HardLinks.Content content = hardLinks.content(entry.source(), entry.size(), targetsByIndex(targetIndexes, targetPaths));
+		Map<Integer, Path> duplicate = content.duplicate();
+		if (duplicate == null) {
+			return content;
+		}
+		for (int index = targetPaths.size() - 1; index >= 0; index--) {
+			Path existingPath = duplicate.get(targetIndexes.get(index));
+			if (existingPath != null) {
+				targetIndexes.remove(index);
+				Path targetPath = targetPaths.remove(index);
+				HardLinks.link(hardLink(entry, targetPath, existingPath, journalEntries.remove(index), verifier, options, tracker));
+			}
+		}
+		return content;
+	}
+
+	private HardLinks.Link hardLink(
+			TransferPlan.Entry entry,
 			Path targetPath,
+			Path existingPath,
+			TransferJournal.FileEntry journalEntry,
+			TransferVerifier verifier,
+			TransferOptions options,
+			ProgressTracker tracker) {
+		return new HardLinks.Link() {
+			@Override
+			public Path target() {
+				return targetPath;
+			}
+
+			@Override
+			public Path existing() {
+				return existingPath;
+			}
+
+			@Override
+			public void linked() throws IOException {
+				journalEntry.markCompleted();
+				tracker.entryRenamed(entry, targetPath);
+			}
+
+			@Override
+			public void copy() throws IOException {
+				long checksum = copyFile(entry.source(), targetPath, journalEntry, options, tracker);
+				verifier.verify(entry.source(), List.of(targetPath), checksum);
+				journalEntry.markCompleted();
+			}
+		};
+	}
+
+	private static Map<Integer, Path> targetsByIndex(List<Integer> targetIndexes, List<Path> targetPaths) {
+		Map<Integer, Path> targets = new HashMap<>();
+		for (int index = 0; index < targetPaths.size(); index++) {
+			targets.put(targetIndexes.get(index), targetPaths.get(index));
+		}
+		return targets;
+	}
+
+	/**
+	 * Runs the files collected from archives: one task per archive that reads it
+	 * front to back when enough of it is wanted, otherwise one task per file as
+	 * for any other source.
+	 */
+	private void extractArchives(
+			ArchiveExtractor extractor,
+			TransferScheduler scheduler,
+			TransferVerifier verifier,
 			TransferOptions options,
 			ProgressTracker tracker) throws IOException {
-		if (Files.isDirectory(sourcePath)) {
-			return copyDirectory(sourcePath, targetPath, options, tracker);
+		if (extractor.isEmpty()) {
+			return;
 		}
-		if (Files.isSymbolicLink(sourcePath) && !followSymbolicLinks(options)) {
-			copySymbolicLink(sourcePath, targetPath, options, tracker);
-			return true;
+		for (ArchiveExtractor.Batch batch : extractor.drain()) {
+			if (!batch.worthStreaming()) {
+				for (ArchiveExtractor.Pending file : batch.files()) {
+					scheduler.submit(file.entry().source(), file.targetPaths(), () -> copyPending(file, verifier, options, tracker));
+				}
+				continue;
+			}
+			List<Path> devicePaths = batch.files().get(0).targetPaths();
+			scheduler.submit(batch.archive(), devicePaths, () -> batch.extract(options != null && options.verify(), new ArchiveExtractor.Listener() {
+				@Override
+				public void checkCancelled() throws IOException {
+					PanelTransferService.this.checkCancelled(options);
+				}
+
+				@Override
+				public void throttle(long bytes) throws IOException {
+					PanelTransferService.this.throttle(options, bytes);
+				}
+
+				@Override
+				public void started(ArchiveExtractor.Pending file) {
+					file.targetPaths().forEach(targetPath -> tracker.report(file.entry().source(), targetPath));
+				}
+
+				@Override
+				public void written(ArchiveExtractor.Pending file, Path targetPath, long bytes) {
+					tracker.bytesTransferred(bytes, file.entry().source(), targetPath);
+				}
+
+				@Override
+				public void completed(ArchiveExtractor.Pending file, Checksum checksum) throws IOException {
+					Path sourcePath = file.entry().source();
+					for (Path targetPath : file.targetPaths()) {
+						applyAttributes(sourcePath, targetPath, options);
+						tracker.fileCompleted(sourcePath, targetPath);
+					}
+					verifier.verify(sourcePath, file.targetPaths(), checksumValue(checksum));
+					for (TransferJournal.FileEntry journalEntry : file.journalEntries()) {
+						journalEntry.markCompleted();
+					}
+				}
+
+				@Override
+				public void fallback(ArchiveExtractor.Pending file) throws IOException {
+					copyPending(file, verifier, options, tracker);
+				}
+			}));
 		}
-		if (Files.exists(targetPath) && Files.isDirectory(targetPath)) {
-			throw new IOException("Cannot overwrite directory with file: " + targetPath);
+	}
+
+	private void copyPending(ArchiveExtractor.Pending file, TransferVerifier verifier, TransferOptions options, ProgressTracker tracker) throws IOException {
+		Path sourcePath = file.entry().source();
+		try {
+			long checksum = copyFile(sourcePath, file.entry().size(), file.targetPaths(), file.journalEntries(), options, tracker);
+			verifier.verify(sourcePath, file.targetPaths(), checksum);
+			for (TransferJournal.FileEntry journalEntry : file.journalEntries()) {
+				journalEntry.markCompleted();
+			}
+		} catch (RuntimeException ex) {
+			throw new IOException("Failed to copy " + sourcePath, ex);
 		}
+	}
 
-		Path parent = targetPath.getParent();
-		if (parent != null) {
-			Files.createDirectories(parent);
+	/**
+	 * Decides whether an existing target needs to be rewritten by a sync. The
+	 * walk already compared size and modification time for tracked destinations;
+	 * other targets are checked with one stat here. With
+	 * {@link TransferOptions#compareContents()} a target of the same size is
+	 * compared byte for byte instead, regardless of its modification time.
+	 */
+	private SyncCheck checkSync(TransferPlan.Entry entry, RootTransfer root, Path targetPath, int destinationIndex, TransferOptions options) {
+		if (entry.kind() != TransferPlan.Kind.FILE) {
+			return SyncCheck.CHANGED;
 		}
-		try (InputStream input = Files.newInputStream(sourcePath)) {
-			copyStream(input, targetPath, sourcePath, options, tracker);
-			return true;
-		} catch (Exception ex) {
-			throw ex instanceof IOException io ? io : new IOException("Failed to copy " + sourcePath, ex);
+		if (!options.compareContents() && entry.conflictTracked(destinationIndex) && !root.renamed && !root.resumed) {
+			return entry.unchangedIn(destinationIndex) ? SyncCheck.UNCHANGED : SyncCheck.CHANGED;
 		}
+		BasicFileAttributes targetAttrs;
+		try {
+			targetAttrs = Files.readAttributes(targetPath, BasicFileAttributes.class);
+		} catch (IOException ex) {
+			return SyncCheck.CHANGED;
+		}
+		if (options.compareContents()) {
+			return targetAttrs.isRegularFile() && targetAttrs.size() == entry.size() ? SyncCheck.COMPARE_CONTENTS : SyncCheck.CHANGED;
+		}
+		return isUnchanged(entry.size(), entry.lastModified(), targetAttrs) ? SyncCheck.UNCHANGED : SyncCheck.CHANGED;
 	}
 
+	static boolean isUnchanged(long sourceSize, long sourceLastModified, BasicFileAttributes targetAttrs) {
+		return targetAttrs.isRegularFile()
+				&& targetAttrs.size() == sourceSize
+				&& Math.abs(targetAttrs.lastModifiedTime().toMillis() - sourceLastModified) <= SYNC_TIME_TOLERANCE_MILLIS;
+	}
+
+	private void createDirectory(TransferPlan.Entry entry, RootTransfer root, int destinationIndex, TransferOptions options) throws IOException {
+		Path targetPath = root.targetFor(entry);
+		if (root.targetExists(entry, targetPath, destinationIndex, options) && !Files.isDirectory(targetPath)) {
+			throw new IOException("Cannot overwrite file with directory: " + targetPath);
+		}
+		Files.createDirectories(targetPath);
+		if (preserveTimestamps(options) || accessPolicy(options) == AccessPolicy.COPY) {
+			applyAttributes(entry.source(), targetPath, options);
+		}
+	}
+
+	/**
+	 * Renames a file or link of a same-device move, copying it when the rename
+	 * is refused.
+	 */
+	private void moveEntry(TransferPlan.Entry entry, Path targetPath, TransferOptions options, ProgressTracker tracker) throws IOException {
+		if (renamePath(entry.source(), targetPath, StandardCopyOption.REPLACE_EXISTING)) {
+			tracker.entryRenamed(entry, targetPath);
+		} else if (entry.kind() == TransferPlan.Kind.SYMBOLIC_LINK) {
+			copySymbolicLink(entry.source(), targetPath, options, tracker);
+		} else {
+			copyFile(entry.source(), targetPath, options, tracker);
+		}
+	}
+
+	/**
+	 * Walks a directory that is reached through a symbolic link which could not
+	 * be recreated on the target; the planned walk only saw the link itself.
+	 */
 	private boolean copyDirectory(Path sourceDirectory, Path targetDirectory, TransferOptions options, ProgressTracker tracker) throws IOException {
 		AtomicBoolean copiedEverything = new AtomicBoolean(true);
+		TransferFilter filter = transferFilter(options);
+		// Directories that only qualify through something below them, created once that shows up.
+		Deque<Path> pendingDirectories = new ArrayDeque<>();
 		Set<FileVisitOption> visitOptions = followSymbolicLinks(options) ? Set.of(FileVisitOption.FOLLOW_LINKS) : Set.of();
 		Files.walkFileTree(sourceDirectory, visitOptions, Integer.MAX_VALUE, new SimpleFileVisitor<>() {
 			@Override
 			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
 				checkCancelled(options);
-				if (!shouldIncludeDirectory(sourceDirectory, dir, options)) {
+				boolean included = filter.includeDirectory(sourceDirectory, dir);
+				if (!dir.equals(sourceDirectory) && !filter.descend(sourceDirectory, dir)) {
+					if (included) {
+						createPendingDirectories();
+						createDirectory(dir);
+					}
 					return FileVisitResult.SKIP_SUBTREE;
 				}
-				Path relative = sourceDirectory.relativize(dir);
-				Path resolvedDirectory = resolveInTargetFileSystem(targetDirectory, relative);
-				if (Files.exists(resolvedDirectory) && !Files.isDirectory(resolvedDirectory)) {
-					throw new IOException("Cannot overwrite file with directory: " + resolvedDirectory);
+				if (!dir.equals(sourceDirectory) && !included) {
+					pendingDirectories.addLast(dir);
+					return FileVisitResult.CONTINUE;
 				}
-				Files.createDirectories(resolvedDirectory);
-				if (preserveTimestamps(options) || accessPolicy(options) == AccessPolicy.COPY) {
-					applyAttributes(dir, resolvedDirectory, options);
+				createPendingDirectories();
+				createDirectory(dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				if (exc != null) {
+					throw exc;
+				}
+				if (dir.equals(pendingDirectories.peekLast())) {
+					pendingDirectories.removeLast();
 				}
 				return FileVisitResult.CONTINUE;
 			}
@@ -145,53 +1044,311 @@ public class PanelTransferService {
 			@Override
 			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
 				checkCancelled(options);
-				if (!shouldInclude(sourceDirectory, file, options)) {
-					tracker.skipFile(file, targetDirectory.resolve(sourceDirectory.relativize(file)), options);
+				if (!filter.includeFile(sourceDirectory, file)) {
 					return FileVisitResult.CONTINUE;
 				}
+				createPendingDirectories();
 				Path relative = sourceDirectory.relativize(file);
 				Path targetFile = resolveInTargetFileSystem(targetDirectory, relative);
 				Path resolvedTargetFile = resolveFileTargetPath(file, targetFile, options);
 				if (resolvedTargetFile == null) {
 					copiedEverything.set(false);
-					tracker.skipFile(file, targetFile, options);
 					return FileVisitResult.CONTINUE;
 				}
 				if (Files.isSymbolicLink(file) && !followSymbolicLinks(options)) {
 					copySymbolicLink(file, resolvedTargetFile, options, tracker);
 					return FileVisitResult.CONTINUE;
 				}
-				try (InputStream input = Files.newInputStream(file)) {
-					copyStream(input, resolvedTargetFile, file, options, tracker);
-				}
+				copyFile(file, resolvedTargetFile, options, tracker);
 				return FileVisitResult.CONTINUE;
 			}
+
+			private void createPendingDirectories() throws IOException {
+				while (!pendingDirectories.isEmpty()) {
+					createDirectory(pendingDirectories.removeFirst());
+				}
+			}
+
+			private void createDirectory(Path dir) throws IOException {
+				Path relative = sourceDirectory.relativize(dir);
+				Path resolvedDirectory = resolveInTargetFileSystem(targetDirectory, relative);
+				if (Files.exists(resolvedDirectory) && !Files.isDirectory(resolvedDirectory)) {
+					throw new IOException("Cannot overwrite file with directory: " + resolvedDirectory);
+				}
+				Files.createDirectories(resolvedDirectory);
+				if (preserveTimestamps(options) || accessPolicy(options) == AccessPolicy.COPY) {
+					applyAttributes(dir, resolvedDirectory, options);
+				}
+			}
 		});
 		return copiedEverything.get();
 	}
 
-	private void copyStream(
-			InputStream input,
+	/**
+	 * Copies a regular file to one target. When both ends live on the default file
+	 * system the bytes are moved with {@link FileChannel#transferTo}, which lets
+	 * the kernel copy without staging every block in a heap buffer
+	 * (sendfile/copy_file_range on Linux). Foreign file systems such as mounted
+	 * archives go through a loop over pooled buffers.
+	 */
+	private long copyFile(
+			Path sourcePath,
+			long sourceSize,
+			List<Path> targetPaths,
+			List<TransferJournal.FileEntry> journalEntries,
+			TransferOptions options,
+			ProgressTracker tracker) throws IOException {
+		if (targetPaths.size() == 1) {
+			return copyFile(sourcePath, targetPaths.get(0), journalEntries.get(0), options, tracker);
+		}
+		checkCancelled(options);
+		targetPaths.forEach(targetPath -> tracker.report(sourcePath, targetPath));
+		Checksum checksum = newChecksum(options);
+		FanOutCopier.copy(sourcePath, sourceSize, targetPaths, bufferPool, checksum, new FanOutCopier.Listener() {
+			@Override
+			public void checkCancelled() throws IOException {
+				PanelTransferService.this.checkCancelled(options);
+			}
+
+			@Override
+			public void throttle(long bytes) throws IOException {
+				PanelTransferService.this.throttle(options, bytes);
+			}
+
+			@Override
+			public void written(Path targetPath, long bytes) {
+				tracker.bytesTransferred(bytes, sourcePath, targetPath);
+			}
+		});
+		for (Path targetPath : targetPaths) {
+			applyAttributes(sourcePath, targetPath, options);
+			tracker.fileCompleted(sourcePath, targetPath);
+		}
+		return checksumValue(checksum);
+	}
+
+	private void copyFile(Path sourcePath, Path targetPath, TransferOptions options, ProgressTracker tracker) throws IOException {
+		copyFile(sourcePath, targetPath, null, options, tracker);
+	}
+
+	/**
+	 * @return the CRC32C of the bytes read from the source when the transfer is
+	 *         verified, otherwise {@link TransferVerifier#NO_CHECKSUM}
+	 */
+	private long copyFile(
+			Path sourcePath,
 			Path targetPath,
+			TransferJournal.FileEntry journalEntry,
+			TransferOptions options,
+			ProgressTracker tracker) throws IOException {
+		if (isDefaultFileSystem(sourcePath) && isDefaultFileSystem(targetPath)) {
+			return copyChannel(sourcePath, targetPath, journalEntry, options, tracker);
+		}
+		return copyBuffered(sourcePath, targetPath, options, tracker);
+	}
+
+	/**
+	 * Journaled copies continue after the last checkpoint when the bytes before
+	 * it still match the source, and checkpoint again every
+	 * {@link TransferJournal#CHECKPOINT_INTERVAL} bytes. With
+	 * {@link TransferOptions#deltaCopy()} large files that already exist on the
+	 * target are updated in place by {@link DeltaCopier} instead. Verified copies
+	 * read through a buffer so the bytes can be checksummed on the way.
+	 */
+	private long copyChannel(
 			Path sourcePath,
+			Path targetPath,
+			TransferJournal.FileEntry journalEntry,
 			TransferOptions options,
 			ProgressTracker tracker) throws IOException {
 		checkCancelled(options);
 		tracker.report(sourcePath, targetPath);
-		try (OutputStream output = Files.newOutputStream(targetPath)) {
-			byte[] buffer = new byte[COPY_BUFFER_SIZE];
-			int read;
-			while ((read = input.read(buffer)) >= 0) {
+		Checksum checksum = newChecksum(options);
+		try (FileChannel input = FileChannel.open(sourcePath, StandardOpenOption.READ);
+				FileChannel output = FileChannel.open(
+						targetPath,
+						StandardOpenOption.READ,
+						StandardOpenOption.WRITE,
+						StandardOpenOption.CREATE)) {
+			long position = 0L;
+			if (journalEntry != null && TransferJournal.verifyPartial(input, output, journalEntry.offset())) {
+				position = journalEntry.offset();
+				tracker.bytesTransferred(position, sourcePath, targetPath);
+				if (checksum != null) {
+					TransferVerifier.update(checksum, input, 0L, position);
+				}
+			}
+			if (position == 0L && deltaCopy(options) && input.size() >= DeltaCopier.MIN_FILE_SIZE && output.size() > 0L) {
+				DeltaCopier.copy(input, output, bufferPool, checksum, new DeltaCopier.Listener() {
+					@Override
+					public void checkCancelled() throws IOException {
+						PanelTransferService.this.checkCancelled(options);
+					}
+
+					@Override
+					public void throttle(long bytes) throws IOException {
+						PanelTransferService.this.throttle(options, bytes);
+					}
+
+					@Override
+					public void compared(long bytes, boolean rewritten) {
+						tracker.bytesCompared(bytes, rewritten, sourcePath, targetPath);
+					}
+				});
+			} else {
+				transferChannel(input, output, position, checksum, journalEntry, sourcePath, targetPath, options, tracker);
+			}
+		}
+		applyAttributes(sourcePath, targetPath, options);
+		tracker.fileCompleted(sourcePath, targetPath);
+		return checksumValue(checksum);
+	}
+
+	private void transferChannel(
+			FileChannel input,
+			FileChannel output,
+			long position,
+			Checksum checksum,
+			TransferJournal.FileEntry journalEntry,
+			Path sourcePath,
+			Path targetPath,
+			TransferOptions options,
+			ProgressTracker tracker) throws IOException {
+		output.truncate(position);
+		output.position(position);
+		long checkpoint = position;
+		long size = input.size();
+		long remaining = size - position;
+		boolean sparse = remaining >= SparseFiles.MIN_FILE_SIZE && SparseFiles.mayHaveHoles(input, position, size);
+		if (!sparse && remaining >= SparseFiles.MIN_FILE_SIZE) {
+			SparseFiles.extend(output, size);
+		}
+		boolean pipelined = checksum != null || sparse;
+		int blockSize = pipelined ? bufferPool.blockSize(remaining) : 0;
+		long started = System.nanoTime();
+		long start = position;
+		// Verified and sparse copies pass through memory, read ahead on another thread while this one checksums and writes.
+		try (PipelinedReader reader = pipelined
+				? new PipelinedReader(input.position(position), bufferPool, blockSize, remaining, chunkSize(options, blockSize))
+				: null) {
+			while (true) {
 				checkCancelled(options);
-				if (read == 0) {
-					continue;
+				long transferred;
+				if (sparse) {
+					transferred = writeSparse(reader, output, position, checksum);
+				} else if (reader != null) {
+					transferred = writeNext(reader, output, checksum);
+				} else {
+					transferred = input.transferTo(position, chunkSize(options, (int) CHANNEL_TRANSFER_CHUNK), output);
+				}
+				if (transferred <= 0L) {
+					break;
+				}
+				throttle(options, transferred);
+				position += transferred;
+				tracker.bytesTransferred(transferred, sourcePath, targetPath);
+				if (journalEntry != null && position - checkpoint >= TransferJournal.CHECKPOINT_INTERVAL) {
+					journalEntry.checkpoint(output, position);
+					checkpoint = position;
+				}
+			}
+			if (reader != null) {
+				bufferPool.recordThroughput(blockSize, position - start, System.nanoTime() - started);
+			}
+		}
+		// Drop preallocated space a shrunken source did not fill, or cover a trailing hole.
+		if (output.size() > position) {
+			output.truncate(position);
+		} else {
+			SparseFiles.extend(output, position);
+		}
+	}
+
+	/**
+	 * @return the bytes of the next block, or {@code -1} at the end
+	 */
+	private long writeSparse(PipelinedReader reader, FileChannel output, long position, Checksum checksum) throws IOException {
+		ByteBuffer buffer = reader.next();
+		if (buffer == null) {
+			return -1L;
+		}
+		int read = buffer.remaining();
+		if (checksum != null) {
+			checksum.update(buffer.duplicate());
+		}
+		SparseFiles.write(output, buffer, position);
+		reader.recycle(buffer);
+		return read;
+	}
+
+	/**
+	 * @return the bytes of the next block written, or {@code -1} at the end
+	 */
+	private long writeNext(PipelinedReader reader, WritableByteChannel output, Checksum checksum) throws IOException {
+		ByteBuffer buffer = reader.next();
+		if (buffer == null) {
+			return -1L;
+		}
+		int read = buffer.remaining();
+		if (checksum != null) {
+			checksum.update(buffer.duplicate());
+		}
+		while (buffer.hasRemaining()) {
+			output.write(buffer);
+		}
+		reader.recycle(buffer);
+		return read;
+	}
+
+	/**
+	 * Copies through pooled direct buffers sized by
+	 * {@link TransferBufferPool#blockSize}, for file systems that have no
+	 * {@link FileChannel}. A {@link PipelinedReader} reads the next blocks while
+	 * the current one is written.
+	 */
+	private long copyBuffered(
+			Path sourcePath,
+			Path targetPath,
+			TransferOptions options,
+			ProgressTracker tracker) throws IOException {
+		checkCancelled(options);
+		tracker.report(sourcePath, targetPath);
+		Checksum checksum = newChecksum(options);
+		try (ReadableByteChannel input = Files.newByteChannel(sourcePath, StandardOpenOption.READ);
+				WritableByteChannel output = Files.newByteChannel(
+						targetPath,
+						StandardOpenOption.WRITE,
+						StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+			long size = Files.size(sourcePath);
+			int blockSize = bufferPool.blockSize(size);
+			long started = System.nanoTime();
+			long copied = 0L;
+			try (PipelinedReader reader = new PipelinedReader(input, bufferPool, blockSize, size, chunkSize(options, blockSize))) {
+				while (true) {
+					checkCancelled(options);
+					long written = writeNext(reader, output, checksum);
+					if (written < 0L) {
+						break;
+					}
+					throttle(options, written);
+					copied += written;
+					tracker.bytesTransferred(written, sourcePath, targetPath);
 				}
-				output.write(buffer, 0, read);
-				tracker.bytesTransferred(read, sourcePath, targetPath);
+				bufferPool.recordThroughput(blockSize, copied, System.nanoTime() - started);
 			}
 		}
 		applyAttributes(sourcePath, targetPath, options);
 		tracker.fileCompleted(sourcePath, targetPath);
+		return checksumValue(checksum);
+	}
+
+	private Checksum newChecksum(TransferOptions options) {
+		return options != null && options.verify() ? new CRC32C() : null;
+	}
+
+	private long checksumValue(Checksum checksum) {
+		return checksum != null ? checksum.getValue() : TransferVerifier.NO_CHECKSUM;
 	}
 
 	private void copySymbolicLink(
@@ -213,14 +1370,12 @@ public class PanelTransferService {
 			if (Files.isDirectory(sourcePath)) {
 				copyDirectory(sourcePath, targetPath, options.withFollowSymbolicLinks(true), tracker);
 			} else {
-				try (InputStream input = Files.newInputStream(sourcePath)) {
-					copyStream(input, targetPath, sourcePath, options.withFollowSymbolicLinks(true), tracker);
-				}
+				copyFile(sourcePath, targetPath, options.withFollowSymbolicLinks(true), tracker);
 			}
 		}
 	}
 
-	private Path resolveInTargetFileSystem(Path targetDirectory, Path relativePath) {
+	static Path resolveInTargetFileSystem(Path targetDirectory, Path relativePath) {
 		Path resolved = targetDirectory;
 		for (Path segment : relativePath) {
 			resolved = resolved.resolve(segment.toString());
@@ -235,7 +1390,7 @@ public class PanelTransferService {
 		if (Files.isDirectory(sourcePath) && Files.isDirectory(targetPath)) {
 			ConflictResolution resolution = resolveConflict(sourcePath, targetPath, true, options);
 			return switch (resolution) {
-				case OVERWRITE -> targetPath;
+				case OVERWRITE, SYNC -> targetPath;
 				case SKIP -> null;
 				case RENAME -> createRenamedTarget(targetPath);
 				case ASK -> throw new IOException("Destination already exists: " + targetPath);
@@ -245,7 +1400,11 @@ public class PanelTransferService {
 	}
 
 	private Path resolveFileTargetPath(Path sourcePath, Path targetPath, TransferOptions options) throws IOException {
-		if (!Files.exists(targetPath)) {
+		return resolveFileTargetPath(sourcePath, targetPath, Files.exists(targetPath), options);
+	}
+
+	private Path resolveFileTargetPath(Path sourcePath, Path targetPath, boolean targetExists, TransferOptions options) throws IOException {
+		if (!targetExists) {
 			return targetPath;
 		}
 		if (Files.isDirectory(targetPath)) {
@@ -253,7 +1412,7 @@ public class PanelTransferService {
 		}
 		ConflictResolution resolution = resolveConflict(sourcePath, targetPath, false, options);
 		return switch (resolution) {
-			case OVERWRITE -> targetPath;
+			case OVERWRITE, SYNC -> targetPath;
 			case SKIP -> null;
 			case RENAME -> createRenamedTarget(targetPath);
 			case ASK -> throw new IOException("Destination already exists: " + targetPath);
@@ -261,9 +1420,7 @@ public class PanelTransferService {
 	}
 
 	private ConflictResolution resolveConflict(Path sourcePath, Path targetPath, boolean directory, TransferOptions options) throws IOException {
-		ConflictResolution configured = options != null && options.conflictResolution() != null
-				? options.conflictResolution()
-				: ConflictResolution.OVERWRITE;
+		ConflictResolution configured = conflictResolution(options);
 		if (configured != ConflictResolution.ASK) {
 			return configured;
 		}
@@ -296,23 +1453,10 @@ public class PanelTransferService {
 		throw new IOException("Cannot find a free target name for: " + targetPath);
 	}
 
-	private void deleteRecursively(Path root) throws IOException {
-		if (!Files.exists(root)) {
-			return;
+	private void deleteRecursively(Path root, TransferOptions options) throws IOException {
+		try (RecursiveDeleter deleter = new RecursiveDeleter(null, options != null ? options.cancellationToken() : null)) {
+			deleter.delete(root);
 		}
-		Files.walkFileTree(root, new SimpleFileVisitor<>() {
-			@Override
-			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-				Files.deleteIfExists(file);
-				return FileVisitResult.CONTINUE;
-			}
-
-			@Override
-			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-				Files.deleteIfExists(dir);
-				return FileVisitResult.CONTINUE;
-			}
-		});
 	}
 
 	private boolean isNestedWithin(Path sourcePath, Path targetPath) {
@@ -322,6 +1466,10 @@ public class PanelTransferService {
 		return targetPath.normalize().startsWith(sourcePath.normalize());
 	}
 
+	private boolean isDefaultFileSystem(Path path) {
+		return path != null && path.getFileSystem() == FileSystems.getDefault();
+	}
+
 	private boolean isSamePath(Path left, Path right) {
 		try {
 			return Files.exists(left) && Files.exists(right) && Files.isSameFile(left, right);
@@ -330,86 +1478,48 @@ public class PanelTransferService {
 		}
 	}
 
-	private String targetName(Path path) {
+	static String targetName(Path path) {
 		Path fileName = path.getFileName();
 		return fileName != null ? fileName.toString() : path.toString();
 	}
 
-	private long countFiles(List<NuclrResourcePath> sources) throws IOException {
-		return countFiles(sources, null);
-	}
-
-	private long countFiles(List<NuclrResourcePath> sources, TransferOptions options) throws IOException {
-		long total = 0L;
-		for (NuclrResourcePath source : sources) {
-			if (source == null || source.getPath() == null) {
-				continue;
-			}
-			Path path = source.getPath();
-			if (Files.isDirectory(path)) {
-				try (var stream = walk(path, options)) {
-					total += stream
-							.filter(file -> !Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS))
-							.filter(file -> shouldInclude(path, file, options))
-							.count();
-				}
-			} else {
-				if (shouldInclude(path.getParent(), path, options)) {
-					total++;
-				}
-			}
+	private void checkCancelled(TransferOptions options) throws IOException {
+		if (isCancelled(options)) {
+			throw new IOException("Transfer cancelled");
 		}
-		return total * destinationDirectories(options).size();
-	}
-
-	private long countBytes(List<NuclrResourcePath> sources) throws IOException {
-		return countBytes(sources, null);
 	}
 
-	private long countBytes(List<NuclrResourcePath> sources, TransferOptions options) throws IOException {
-		long total = 0L;
-		for (NuclrResourcePath source : sources) {
-			if (source == null || source.getPath() == null) {
-				continue;
-			}
-			Path path = source.getPath();
-			if (Files.isDirectory(path)) {
-				try (var stream = walk(path, options)) {
-					total += stream
-							.filter(file -> !Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS))
-							.filter(file -> shouldInclude(path, file, options))
-							.mapToLong(this::safeSize)
-							.sum();
-				}
-				continue;
-			}
-			if (shouldInclude(path.getParent(), path, options)) {
-				total += safeSize(path, source.getSizeBytes());
-			}
+	/**
+	 * Takes {@code bytes} from the global bucket and from the transfer's own;
+	 * returns at once when neither is limited.
+	 */
+	private void throttle(TransferOptions options, long bytes) throws IOException {
+		globalBandwidthLimiter.acquire(bytes);
+		if (options != null && options.bandwidthLimiter() != null) {
+			options.bandwidthLimiter().acquire(bytes);
 		}
-		return total * destinationDirectories(options).size();
 	}
 
-	private long safeSize(Path path) {
-		return safeSize(path, 0L);
+	/**
+	 * @return {@code maximum}, or less when a limit is set, so a throttled copy
+	 *         waits in short steps and stays responsive to cancellation
+	 */
+	private int chunkSize(TransferOptions options, int maximum) {
+		int chunk = globalBandwidthLimiter.chunkSize(maximum);
+		return options != null && options.bandwidthLimiter() != null ? options.bandwidthLimiter().chunkSize(chunk) : chunk;
 	}
 
-	private long safeSize(Path path, long fallback) {
-		try {
-			return Files.size(path);
-		} catch (IOException ex) {
-			return Math.max(0L, fallback);
-		}
+	private boolean isCancelled(TransferOptions options) {
+		return options != null && options.cancellationToken() != null && options.cancellationToken().isCancelled();
 	}
 
-	private void checkCancelled(TransferOptions options) throws IOException {
-		if (options != null && options.cancellationToken() != null && options.cancellationToken().isCancelled()) {
-			throw new IOException("Transfer cancelled");
-		}
+	private boolean preserveTimestamps(TransferOptions options) {
+		// A sync recognises unchanged files by their modification time, so it must carry it over.
+		return options != null && (options.preserveTimestamps() || options.conflictResolution() == ConflictResolution.SYNC);
 	}
 
-	private boolean preserveTimestamps(TransferOptions options) {
-		return options != null && options.preserveTimestamps();
+	private boolean deltaCopy(TransferOptions options) {
+		return options != null && options.deltaCopy();
 	}
 
 	private boolean followSymbolicLinks(TransferOptions options) {
@@ -430,39 +1540,14 @@ public class PanelTransferService {
 		return options.destinationDirectory() != null ? List.of(options.destinationDirectory()) : List.of();
 	}
 
-	private boolean shouldIncludeDirectory(Path root, Path directory, TransferOptions options) {
-		if (root == null || directory == null) {
-			return true;
-		}
-		if (root.equals(directory)) {
-			return true;
-		}
-		return shouldInclude(root, directory, options)
-				|| hasIncludedDescendants(root, directory, options);
-	}
-
-	private boolean hasIncludedDescendants(Path root, Path directory, TransferOptions options) {
-		if (options == null || options.filterMatchers().isEmpty()) {
-			return true;
-		}
-		try (var stream = Files.walk(directory, 1)) {
-			return stream
-					.filter(path -> !directory.equals(path))
-					.anyMatch(path -> shouldInclude(root, path, options)
-							|| (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS) && hasIncludedDescendants(root, path, options)));
-		} catch (IOException ex) {
-			return false;
-		}
+	private ConflictResolution conflictResolution(TransferOptions options) {
+		return options != null && options.conflictResolution() != null
+				? options.conflictResolution()
+				: ConflictResolution.OVERWRITE;
 	}
 
-	private boolean shouldInclude(Path root, Path path, TransferOptions options) {
-		if (options == null || options.filterMatchers().isEmpty() || path == null) {
-			return true;
-		}
-		Path relative = root != null && path.normalize().startsWith(root.normalize()) ? root.normalize().relativize(path.normalize()) : path.getFileName();
-		String unix = relative != null ? relative.toString().replace('\\', '/') : "";
-		String fileName = path.getFileName() != null ? path.getFileName().toString() : unix;
-		return options.filterMatchers().stream().anyMatch(matcher -> matcher.matches(Path.of(unix)) || matcher.matches(Path.of(fileName)));
+	private TransferFilter transferFilter(TransferOptions options) {
+		return options != null ? options.filter() : TransferFilter.ALL;
 	}
 
 	private void applyAttributes(Path sourcePath, Path targetPath, TransferOptions options) {
@@ -502,17 +1587,17 @@ public class PanelTransferService {
 		}
 	}
 
-	private Stream<Path> walk(Path path, TransferOptions options) throws IOException {
-		return followSymbolicLinks(options)
-				? Files.walk(path, FileVisitOption.FOLLOW_LINKS)
-				: Files.walk(path);
-	}
-
 	public enum ConflictResolution {
 		ASK,
 		OVERWRITE,
 		SKIP,
-		RENAME
+		RENAME,
+		/**
+		 * Rewrites existing files only when they differ from the source by size or
+		 * modification time, or by content when
+		 * {@link TransferOptions#compareContents()} is set.
+		 */
+		SYNC
 	}
 
 	public enum AccessPolicy {
@@ -528,14 +1613,20 @@ public class PanelTransferService {
 			ConflictResolver conflictResolver,
 			ProgressListener progressListener,
 			CancellationToken cancellationToken,
+			BandwidthLimiter bandwidthLimiter,
 			AccessPolicy accessPolicy,
 			boolean preserveTimestamps,
 			boolean followSymbolicLinks,
+			boolean compareContents,
+			boolean deltaCopy,
+			boolean verify,
+			boolean linkDuplicates,
+			boolean diskOrder,
 			String filterExpression,
-			List<PathMatcher> filterMatchers) {
+			TransferFilter filter) {
 
 		public TransferOptions(Path destinationDirectory, ConflictResolution conflictResolution, ConflictResolver conflictResolver) {
-			this(destinationDirectory, List.of(destinationDirectory), conflictResolution, conflictResolver, null, null, AccessPolicy.DEFAULT, false, false, null, List.of());
+			this(destinationDirectory, List.of(destinationDirectory), conflictResolution, conflictResolver, null, null, null, AccessPolicy.DEFAULT, false, false, false, false, false, false, false, null, TransferFilter.ALL);
 		}
 
 		public TransferOptions {
@@ -544,7 +1635,52 @@ public class PanelTransferService {
 					: destinationDirectory != null ? List.of(destinationDirectory) : List.of();
 			accessPolicy = accessPolicy != null ? accessPolicy : AccessPolicy.DEFAULT;
 			filterExpression = filterExpression != null && !filterExpression.isBlank() ? filterExpression.trim() : null;
-			filterMatchers = filterMatchers != null ? List.copyOf(filterMatchers) : compileFilterMatchers(filterExpression);
+			filter = filter != null ? filter : TransferFilter.compile(filterExpression);
+		}
+
+		public TransferOptions withCallbacks(
+				ConflictResolver conflictResolver,
+				ProgressListener progressListener,
+				CancellationToken cancellationToken) {
+			return new TransferOptions(
+					destinationDirectory,
+					destinationDirectories,
+					conflictResolution,
+					conflictResolver,
+					progressListener,
+					cancellationToken,
+					bandwidthLimiter,
+					accessPolicy,
+					preserveTimestamps,
+					followSymbolicLinks,
+					compareContents,
+					deltaCopy,
+					verify,
+					linkDuplicates,
+					diskOrder,
+					filterExpression,
+					filter);
+		}
+
+		public TransferOptions withBandwidthLimiter(BandwidthLimiter value) {
+			return new TransferOptions(
+					destinationDirectory,
+					destinationDirectories,
+					conflictResolution,
+					conflictResolver,
+					progressListener,
+					cancellationToken,
+					value,
+					accessPolicy,
+					preserveTimestamps,
+					followSymbolicLinks,
+					compareContents,
+					deltaCopy,
+					verify,
+					linkDuplicates,
+					diskOrder,
+					filterExpression,
+					filter);
 		}
 
 		public TransferOptions withFollowSymbolicLinks(boolean value) {
@@ -555,17 +1691,53 @@ public class PanelTransferService {
 					conflictResolver,
 					progressListener,
 					cancellationToken,
+					bandwidthLimiter,
 					accessPolicy,
 					preserveTimestamps,
 					value,
+					compareContents,
+					deltaCopy,
+					verify,
+					linkDuplicates,
+					diskOrder,
 					filterExpression,
-					filterMatchers);
+					filter);
 		}
 	}
 
 	@FunctionalInterface
 	public interface ConflictResolver {
 		ConflictResolution resolve(Path sourcePath, Path targetPath, boolean directory) throws IOException;
+
+		/**
+		 * Settles every conflict found before a transfer with
+		 * {@link ConflictResolution#ASK} starts copying. {@link ConflictResolution#ASK}
+		 * defers a conflict until the copy reaches it and {@code null} skips it.
+		 * By default every conflict is passed to {@link #resolve} in turn.
+		 *
+		 * @return one resolution per conflict, in the same order
+		 */
+		default List<ConflictResolution> resolveAll(List<Conflict> conflicts) throws IOException {
+			List<ConflictResolution> resolutions = new ArrayList<>(conflicts.size());
+			for (Conflict conflict : conflicts) {
+				resolutions.add(resolve(conflict.sourcePath(), conflict.targetPath(), conflict.directory()));
+			}
+			return resolutions;
+		}
+	}
+
+	/**
+	 * A target that already existed when the transfer was scanned. Times are
+	 * epoch milliseconds; sizes of directories are {@code 0}.
+	 */
+	public record Conflict(
+			Path sourcePath,
+			Path targetPath,
+			boolean directory,
+			long sourceSize,
+			long sourceLastModified,
+			long targetSize,
+			long targetLastModified) {
 	}
 
 	@FunctionalInterface
@@ -578,104 +1750,307 @@ public class PanelTransferService {
 		boolean isCancelled();
 	}
 
+	/**
+	 * Progress snapshot, published about 15 times a second while a transfer
+	 * runs and once more when it ends. {@code bytesPerSecond} covers the time
+	 * since the previous snapshot, {@code smoothedBytesPerSecond} the last few
+	 * seconds; {@code remaining} is {@code null} until the scan has finished and
+	 * a rate is known.
+	 */
 	public record TransferProgress(
 			long totalFiles,
 			long completedFiles,
 			long totalBytes,
 			long transferredBytes,
+			long unchangedBytes,
 			Path currentSource,
-			Path currentTarget) {
+			Path currentTarget,
+			boolean scanComplete,
+			long bytesPerSecond,
+			long smoothedBytesPerSecond,
+			Duration remaining) {
 	}
 
-	private final class ProgressTracker {
-		private final TransferOptions options;
-		private final long totalFiles;
-		private final long totalBytes;
-		private long completedFiles;
-		private long transferredBytes;
+	/**
+	 * Snapshot of the copy buffer pool: how often a buffer could be reused, how
+	 * much memory is parked in the pool and how much was allocated overall.
+	 */
+	public record BufferPoolStats(
+			long hits,
+			long misses,
+			int pooledBuffers,
+			long pooledBytes,
+			long allocatedBytes,
+			int blockSizeLimit) {
+
+		public double hitRate() {
+			long requests = hits + misses;
+			return requests == 0L ? 0.0 : (double) hits / requests;
+		}
+	}
+
+	/**
+	 * A transfer that did not finish and left its journal behind.
+	 */
+	public record PendingTransfer(
+			String id,
+			boolean move,
+			List<Path> sources,
+			List<Path> destinationDirectories,
+			Instant started) {
+	}
+
+	private enum SyncCheck {
+		UNCHANGED,
+		CHANGED,
+		COMPARE_CONTENTS
+	}
+
+	/**
+	 * Target side of one selected source within a single destination.
+	 */
+	private final class RootTransfer {
+		private final Path sourceRoot;
+		private final Path targetRoot;
+		private final boolean skipped;
+		private final boolean renamed;
+		private boolean copiedEverything = true;
+		// Moves within one device rename files instead of copying them.
+		private boolean renameEntries;
+		// Resumed roots were partly written before, so their scan-time conflicts are our own files.
+		private boolean resumed;
+
+		private RootTransfer(Path sourceRoot, Path targetRoot, boolean skipped, boolean renamed) {
+			this.sourceRoot = sourceRoot;
+			this.targetRoot = targetRoot;
+			this.skipped = skipped;
+			this.renamed = renamed;
+		}
 
-		private ProgressTracker(TransferOptions options, long totalFiles, long totalBytes) {
+		private Path targetFor(TransferPlan.Entry entry) {
+			return entry.root() ? targetRoot : resolveInTargetFileSystem(targetRoot, sourceRoot.relativize(entry.source()));
+		}
+
+		private boolean targetExists(TransferPlan.Entry entry, Path targetPath, int destinationIndex, TransferOptions options) {
+			if (resumed) {
+				return Files.exists(targetPath);
+			}
+			if (renamed) {
+				// A renamed root points at a directory that did not exist before this transfer.
+				return entry.root() && Files.exists(targetPath);
+			}
+			// Renames mint new names while copying, so the scan-time snapshot may be stale.
+			if (!entry.conflictTracked(destinationIndex) || conflictResolution(options) == ConflictResolution.RENAME) {
+				return Files.exists(targetPath);
+			}
+			return entry.conflictsIn(destinationIndex);
+		}
+	}
+
+	/**
+	 * Counts progress from all copy threads without locking and publishes a
+	 * snapshot to the listener at a fixed rate from its own virtual thread, so
+	 * the number of progress events does not grow with the number of blocks or
+	 * files copied. Every snapshot carries the throughput since the previous one,
+	 * a smoothed throughput and the remaining time derived from it.
+	 */
+	private final class ProgressTracker implements AutoCloseable {
+		private final TransferOptions options;
+		private final TransferPlan plan;
+		private final int passes;
+		private final long renamedRoots;
+		private final LongAdder completedFiles = new LongAdder();
+		private final LongAdder transferredBytes = new LongAdder();
+		private final LongAdder renamedBytes = new LongAdder();
+		private final LongAdder unchangedBytes = new LongAdder();
+		private final AtomicBoolean closed = new AtomicBoolean();
+		private volatile Path currentSource;
+		private volatile Path currentTarget;
+		private volatile RuntimeException listenerFailure;
+		private Thread publisher;
+		// Touched by the publishing thread only, and by close() after it has stopped.
+		private long lastPublished = System.nanoTime();
+		private long lastBytes;
+		private double smoothedBytesPerSecond;
+
+		private ProgressTracker(TransferOptions options, TransferPlan plan, int passes, long renamedRoots) {
 			this.options = options;
-			this.totalFiles = totalFiles;
-			this.totalBytes = totalBytes;
+			this.plan = plan;
+			this.passes = Math.max(1, passes);
+			this.renamedRoots = renamedRoots;
+			this.completedFiles.add(renamedRoots);
+		}
+
+		private void start(Path currentTarget) {
+			this.currentTarget = currentTarget;
+			if (listener() == null) {
+				return;
+			}
+			publish();
+			publisher = Thread.ofVirtual().name("transfer-progress").start(this::publishPeriodically);
 		}
 
 		private void bytesTransferred(long bytes, Path currentSource, Path currentTarget) {
-			transferredBytes += bytes;
+			transferredBytes.add(bytes);
 			report(currentSource, currentTarget);
 		}
 
 		private void fileCompleted(Path currentSource, Path currentTarget) {
-			completedFiles++;
+			completedFiles.increment();
 			report(currentSource, currentTarget);
 		}
 
-		private void skipPath(Path sourcePath, Path targetPath, TransferOptions options) throws IOException {
-			if (sourcePath != null && Files.isDirectory(sourcePath)) {
-				try (var stream = walk(sourcePath, options)) {
-					long skippedFiles = stream
-							.filter(file -> !Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS))
-							.filter(file -> shouldInclude(sourcePath, file, options))
-							.count();
-					completedFiles += skippedFiles;
-				}
-				try (var stream = walk(sourcePath, options)) {
-					transferredBytes += stream
-							.filter(file -> !Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS))
-							.filter(file -> shouldInclude(sourcePath, file, options))
-							.mapToLong(ProgressTracker::safeStaticSize)
-							.sum();
-				}
-			} else {
-				completedFiles++;
-				transferredBytes += Math.max(0L, safeStaticSize(sourcePath));
+		/**
+		 * Renames and hard links finish an entry without moving its bytes, so
+		 * they are taken out of the byte totals and only advance the entry count.
+		 */
+		private void entryRenamed(TransferPlan.Entry entry, Path targetPath) {
+			completedFiles.increment();
+			renamedBytes.add(entry.size());
+			report(entry.source(), targetPath);
+		}
+
+		/**
+		 * Files a sync found unchanged count as done and are summed up separately
+		 * so the user sees how much copying was avoided.
+		 */
+		private void unchangedEntry(TransferPlan.Entry entry, Path targetPath) {
+			completedFiles.increment();
+			transferredBytes.add(entry.size());
+			unchangedBytes.add(entry.size());
+			report(entry.source(), targetPath);
+		}
+
+		/**
+		 * Blocks a delta copy found equal count as transferred and as avoided.
+		 */
+		private void bytesCompared(long bytes, boolean rewritten, Path currentSource, Path currentTarget) {
+			transferredBytes.add(bytes);
+			if (!rewritten) {
+				unchangedBytes.add(bytes);
 			}
-			report(sourcePath, targetPath);
+			report(currentSource, currentTarget);
 		}
 
-		private void skipFile(Path sourcePath, Path targetPath, TransferOptions options) {
-			if (!shouldInclude(sourcePath != null ? sourcePath.getParent() : null, sourcePath, options)) {
+		private void skipEntry(TransferPlan.Entry entry, Path targetPath) {
+			if (entry.kind() == TransferPlan.Kind.DIRECTORY) {
 				return;
 			}
-			completedFiles++;
-			transferredBytes += Math.max(0L, safeStaticSize(sourcePath));
-			report(sourcePath, targetPath);
+			completedFiles.increment();
+			transferredBytes.add(entry.size());
+			report(entry.source(), targetPath);
 		}
 
+		/**
+		 * Records what is being copied. A listener that failed on the publishing
+		 * thread fails the transfer from here, on the next copy thread to report.
+		 */
 		private void report(Path currentSource, Path currentTarget) {
-			if (options == null || options.progressListener() == null) {
+			RuntimeException failure = listenerFailure;
+			if (failure != null) {
+				throw failure;
+			}
+			this.currentSource = currentSource;
+			this.currentTarget = currentTarget;
+		}
+
+		/**
+		 * Publishes the final state and fails the transfer if the listener threw
+		 * after the last file had already reported.
+		 */
+		private void finish() {
+			close();
+			RuntimeException failure = listenerFailure;
+			if (failure != null) {
+				throw failure;
+			}
+		}
+
+		/**
+		 * Stops the publisher and hands the final state to the listener.
+		 */
+		@Override
+		public void close() {
+			if (!closed.compareAndSet(false, true) || publisher == null || listenerFailure != null) {
 				return;
 			}
-			options.progressListener().onProgress(new TransferProgress(
-					totalFiles,
-					Math.min(completedFiles, totalFiles),
-					totalBytes,
-					totalBytes > 0L ? Math.min(transferredBytes, totalBytes) : transferredBytes,
-					currentSource,
-					currentTarget));
+			publisher.interrupt();
+			boolean interrupted = false;
+			while (true) {
+				try {
+					publisher.join();
+					break;
+				} catch (InterruptedException ex) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			publish();
 		}
 
-		private static long safeStaticSize(Path path) {
-			if (path == null) {
-				return 0L;
+		private void publishPeriodically() {
+			while (!closed.get()) {
+				try {
+					Thread.sleep(PROGRESS_INTERVAL_MILLIS);
+				} catch (InterruptedException ex) {
+					return;
+				}
+				if (closed.get()) {
+					return;
+				}
+				try {
+					publish();
+				} catch (RuntimeException ex) {
+					listenerFailure = ex;
+					return;
+				}
 			}
-			try {
-				return Files.isRegularFile(path) ? Files.size(path) : 0L;
-			} catch (IOException ex) {
-				return 0L;
+		}
+
+		private void publish() {
+			ProgressListener listener = listener();
+			long now = System.nanoTime();
+			long transferred = transferredBytes.sum();
+			long completed = completedFiles.sum();
+			long elapsed = now - lastPublished;
+			long bytesPerSecond = 0L;
+			if (elapsed > 0L) {
+				bytesPerSecond = Math.max(0L, Math.round((transferred - lastBytes) * 1e9 / elapsed));
+				// Exponential smoothing weighted by the elapsed time, so the rate reads the same at any publish frequency.
+				double weight = 1.0 - Math.exp(-elapsed / (double) THROUGHPUT_SMOOTHING_NANOS);
+				smoothedBytesPerSecond = smoothedBytesPerSecond == 0.0
+						? bytesPerSecond
+						: smoothedBytesPerSecond + (bytesPerSecond - smoothedBytesPerSecond) * weight;
+			}
+			lastPublished = now;
+			lastBytes = transferred;
+
+			long totalFiles = plan.fileCount() * passes + renamedRoots;
+			long totalBytes = Math.max(0L, plan.byteCount() * passes - renamedBytes.sum());
+			long reportedBytes = totalBytes > 0L ? Math.min(transferred, totalBytes) : transferred;
+			boolean scanComplete = plan.isComplete();
+			Duration remaining = null;
+			if (scanComplete && smoothedBytesPerSecond >= 1.0) {
+				remaining = Duration.ofMillis(Math.round((totalBytes - reportedBytes) * 1000.0 / smoothedBytesPerSecond));
 			}
+			listener.onProgress(new TransferProgress(
+					totalFiles,
+					Math.min(completed, totalFiles),
+					totalBytes,
+					reportedBytes,
+					unchangedBytes.sum(),
+					currentSource,
+					currentTarget,
+					scanComplete,
+					bytesPerSecond,
+					Math.round(smoothedBytesPerSecond),
+					remaining));
 		}
-	}
 
-	private static List<PathMatcher> compileFilterMatchers(String expression) {
-		if (expression == null || expression.isBlank()) {
-			return List.of();
+		private ProgressListener listener() {
+			return options != null ? options.progressListener() : null;
 		}
-		return List.of(expression.split("[;\\r\\n]+")).stream()
-				.map(String::trim)
-				.filter(token -> !token.isBlank())
-				.map(token -> "glob:" + token.replace('\\', '/'))
-				.map(syntax -> Path.of(".").getFileSystem().getPathMatcher(syntax))
-				.collect(Collectors.toList());
 	}
 }
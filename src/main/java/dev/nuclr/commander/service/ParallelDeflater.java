@@ -0,0 +1,243 @@
+package dev.nuclr.commander.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+/**
+ * Writes an ordered sequence of raw blocks and deflate streams to one output,
+ * compressing on a pool of worker threads.
+ *
+ * <p>
+ * Every {@link Stream} is cut into {@link #CHUNK_SIZE} chunks that are
+ * deflated independently, each primed with the last 32 KB of the chunk before
+ * it so the ratio stays close to a single-threaded deflate. Chunks other than
+ * the last end on a sync flush and only the last one finishes the stream, so
+ * the compressed chunks concatenate into one valid raw deflate stream. Results
+ * are written in submission order by the calling thread, which never gets more
+ * than {@link #window} blocks ahead of the output; memory stays bounded
+ * however large the input is. Ordered {@link Action actions} run on the
+ * calling thread once everything submitted before them has been written,
+ * which is when compressed sizes and output positions are known, and may
+ * write headers that depend on them.
+ *
+ * <p>
+ * The class is not thread-safe; a single thread submits and writes.
+ */
+final class ParallelDeflater implements AutoCloseable {
+
+	static final int CHUNK_SIZE = 1024 * 1024;
+
+	// The deflate window; priming a chunk with more history gains nothing.
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+	private static final int MIN_BUFFER_SIZE = 4 * 1024;
+
+	private final OutputStream output;
+	private final int level;
+	private final ExecutorService workers;
+	private final int window;
+	private final Deque<Block> blocks = new ArrayDeque<>();
+	private long position;
+
+	/**
+	 * @param threads how many chunks are compressed at once
+	 */
+	ParallelDeflater(OutputStream output, int level, int threads) {
+		this.output = output;
+		this.level = level;
+		int workerCount = Math.max(1, threads);
+		this.workers = Executors.newFixedThreadPool(workerCount, Thread.ofPlatform().daemon().name("archive-deflate-", 0).factory());
+		// Room for every worker to be busy while the head block is written.
+		this.window = workerCount * 4;
+	}
+
+	/**
+	 * Runs on the writing thread once everything submitted before it has been
+	 * written.
+	 */
+	interface Action {
+		/**
+		 * @return bytes to write at this point, or {@code null}
+		 */
+		byte[] run() throws IOException;
+	}
+
+	/**
+	 * @return the bytes written to the output so far; inside an {@link Action}
+	 *         this is the offset of whatever is submitted after it
+	 */
+	long position() {
+		return position;
+	}
+
+	/**
+	 * Queues {@code bytes} to be written as they are.
+	 */
+	void write(byte[] bytes) throws IOException {
+		enqueue(new Block(CompletableFuture.completedFuture(bytes), null, null));
+	}
+
+	void then(Action action) throws IOException {
+		enqueue(new Block(null, null, action));
+	}
+
+	/**
+	 * @param sizeHint how many bytes the stream is expected to take, so small
+	 *                 streams do not hold a whole chunk each
+	 * @return a new deflate stream, written at the current end of the queue
+	 */
+	Stream stream(long sizeHint) {
+		return new Stream((int) Math.max(MIN_BUFFER_SIZE, Math.min(CHUNK_SIZE, sizeHint)));
+	}
+
+	/**
+	 * Writes everything that is still queued and flushes the output.
+	 */
+	void flush() throws IOException {
+		while (!blocks.isEmpty()) {
+			writeHead();
+		}
+		output.flush();
+	}
+
+	@Override
+	public void close() {
+		workers.shutdownNow();
+	}
+
+	private void enqueue(Block block) throws IOException {
+		blocks.addLast(block);
+		while (blocks.size() > window) {
+			writeHead();
+		}
+		// Write whatever is ready anyway, so finished chunks do not sit in memory.
+		while (!blocks.isEmpty() && blocks.peekFirst().ready()) {
+			writeHead();
+		}
+	}
+
+	private void writeHead() throws IOException {
+		Block block = blocks.pollFirst();
+		byte[] bytes;
+		try {
+			bytes = block.action != null ? block.action.run() : block.data.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Transfer interrupted", ex);
+		} catch (ExecutionException ex) {
+			throw new IOException("Failed to compress archive data", ex.getCause());
+		}
+		if (bytes == null) {
+			return;
+		}
+		output.write(bytes);
+		position += bytes.length;
+		if (block.stream != null) {
+			block.stream.compressedSize += bytes.length;
+		}
+	}
+
+	private byte[] deflate(byte[] data, int length, byte[] dictionary, boolean last) {
+		Deflater deflater = new Deflater(level, true);
+		try {
+			if (dictionary != null) {
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(data, 0, length);
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+			byte[] buffer = new byte[OUTPUT_BUFFER_SIZE];
+			if (last) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					compressed.write(buffer, 0, deflater.deflate(buffer));
+				}
+			} else {
+				int count;
+				do {
+					count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					compressed.write(buffer, 0, count);
+				} while (count == buffer.length);
+			}
+			return compressed.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * One raw deflate stream. Bytes are buffered up to a chunk and handed to the
+	 * workers as each chunk fills up.
+	 */
+	final class Stream {
+		private byte[] chunk;
+		private int length;
+		private byte[] dictionary;
+		private long compressedSize;
+
+		private Stream(int capacity) {
+			chunk = new byte[capacity];
+		}
+
+		void write(byte[] bytes, int offset, int count) throws IOException {
+			while (count > 0) {
+				if (length == chunk.length) {
+					chunk = Arrays.copyOf(chunk, Math.min(CHUNK_SIZE, chunk.length * 2));
+				}
+				int copied = Math.min(count, chunk.length - length);
+				System.arraycopy(bytes, offset, chunk, length, copied);
+				length += copied;
+				offset += copied;
+				count -= copied;
+				if (length == CHUNK_SIZE) {
+					submit(false);
+				}
+			}
+		}
+
+		/**
+		 * Ends the stream; nothing may be written to it afterwards.
+		 */
+		void finish() throws IOException {
+			submit(true);
+			chunk = null;
+		}
+
+		/**
+		 * @return the compressed bytes written so far; final in an {@link Action}
+		 *         queued after {@link #finish()}
+		 */
+		long compressedSize() {
+			return compressedSize;
+		}
+
+		private void submit(boolean last) throws IOException {
+			byte[] data = chunk;
+			int count = length;
+			byte[] primer = dictionary;
+			if (!last) {
+				// Only the last chunk can be short, so every other one holds a full window.
+				dictionary = Arrays.copyOfRange(data, count - DICTIONARY_SIZE, count);
+				chunk = new byte[CHUNK_SIZE];
+				length = 0;
+			}
+			enqueue(new Block(workers.submit(() -> deflate(data, count, primer, last)), this, null));
+		}
+	}
+
+	private record Block(Future<byte[]> data, Stream stream, Action action) {
+
+		private boolean ready() {
+			return action != null || data.isDone();
+		}
+	}
+}
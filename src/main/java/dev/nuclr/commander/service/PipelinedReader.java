@@ -0,0 +1,144 @@
+package dev.nuclr.commander.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Reads a channel ahead of the thread that writes its contents elsewhere.
+ *
+ * <p>
+ * A virtual thread fills pooled blocks from the input and queues them in
+ * order, while the copying thread takes them with {@link #next()}, writes them
+ * and hands them back with {@link #recycle}. The source keeps reading while the
+ * target writes instead of both sides taking turns, which matters most when
+ * they are different devices. At most a few blocks, and never much more than
+ * {@link #MAX_BUFFERED_BYTES}, are in flight, so the reader stays a bounded
+ * distance ahead. Cancellation, throttling and progress stay with the copying
+ * thread, which sees every block in order.
+ */
+final class PipelinedReader implements AutoCloseable {
+
+	static final int BLOCK_COUNT = 4;
+	static final long MAX_BUFFERED_BYTES = 8L * 1024 * 1024;
+
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	private final ReadableByteChannel input;
+	private final TransferBufferPool pool;
+	private final int readSize;
+	private final List<ByteBuffer> buffers;
+	private final BlockingQueue<ByteBuffer> free;
+	private final BlockingQueue<ByteBuffer> filled = new LinkedBlockingQueue<>();
+	private final Thread thread;
+	private volatile IOException failure;
+	private boolean ended;
+
+	/**
+	 * Starts reading {@code input} from its current position.
+	 *
+	 * @param blockSize the size of the pooled blocks
+	 * @param remaining how many bytes are expected, so small files do not hold
+	 *                  more blocks than they can fill
+	 * @param readSize  the most bytes to read into one block
+	 */
+	PipelinedReader(ReadableByteChannel input, TransferBufferPool pool, int blockSize, long remaining, int readSize) {
+		this.input = input;
+		this.pool = pool;
+		this.readSize = Math.max(1, readSize);
+		long blocksNeeded = Math.min(MAX_BUFFERED_BYTES / blockSize, Math.max(0L, remaining) / blockSize + 1L);
+		int blockCount = (int) Math.max(2L, Math.min(BLOCK_COUNT, blocksNeeded));
+		this.buffers = new ArrayList<>(blockCount);
+		for (int i = 0; i < blockCount; i++) {
+			buffers.add(pool.acquire(blockSize));
+		}
+		this.free = new ArrayBlockingQueue<>(blockCount, false, buffers);
+		this.thread = Thread.ofVirtual().name("transfer-read-ahead").start(this::read);
+	}
+
+	/**
+	 * @return the next block, ready to be read, or {@code null} at the end of
+	 *         the input
+	 * @throws IOException if reading failed
+	 */
+	ByteBuffer next() throws IOException {
+		if (ended) {
+			return null;
+		}
+		ByteBuffer buffer;
+		try {
+			buffer = filled.take();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Transfer interrupted", ex);
+		}
+		if (buffer == END) {
+			ended = true;
+			if (failure != null) {
+				throw failure;
+			}
+			return null;
+		}
+		return buffer;
+	}
+
+	/**
+	 * Hands a block returned by {@link #next()} back for reading.
+	 */
+	void recycle(ByteBuffer buffer) {
+		free.add(buffer);
+	}
+
+	/**
+	 * Stops the reader if it is still running and returns the blocks to the
+	 * pool.
+	 */
+	@Override
+	public void close() {
+		thread.interrupt();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				thread.join();
+				break;
+			} catch (InterruptedException ex) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		buffers.forEach(pool::release);
+	}
+
+	private void read() {
+		try {
+			while (true) {
+				ByteBuffer buffer = free.take();
+				buffer.clear().limit(Math.min(buffer.capacity(), readSize));
+				int read;
+				do {
+					read = input.read(buffer);
+				} while (read == 0);
+				if (read < 0) {
+					break;
+				}
+				buffer.flip();
+				filled.add(buffer);
+			}
+		} catch (InterruptedException ex) {
+			// Closed before the end; nobody waits for more blocks.
+			return;
+		} catch (IOException ex) {
+			failure = ex;
+		} catch (RuntimeException ex) {
+			failure = new IOException(ex.getMessage(), ex);
+		}
+		filled.add(END);
+	}
+}
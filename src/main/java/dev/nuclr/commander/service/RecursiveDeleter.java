@@ -0,0 +1,342 @@
+package dev.nuclr.commander.service;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import dev.nuclr.commander.service.PanelTransferService.CancellationToken;
+import dev.nuclr.commander.service.PanelTransferService.ProgressListener;
+import dev.nuclr.commander.service.PanelTransferService.TransferProgress;
+
+/**
+ * Deletes directory trees with up to {@link #CONCURRENCY} unlinks in flight.
+ *
+ * <p>
+ * A single thread walks the tree and hands every file to a virtual thread,
+ * blocking once {@link #CONCURRENCY} deletions are outstanding, so files of the
+ * same directory go away concurrently while memory stays bounded. Each
+ * directory counts its outstanding children plus one hold for the walk itself;
+ * whoever drops the count to zero removes the directory and releases its
+ * parent, which removes the tree bottom-up without a second pass.
+ *
+ * <p>
+ * The first failure wins and stops the walk. Directories above a file that
+ * could not be deleted are left in place. Cancellation is checked for every
+ * entry, by the walk and by every deletion that has not started yet.
+ */
+final class RecursiveDeleter implements AutoCloseable {
+
+	static final int CONCURRENCY = 8;
+
+	private final ProgressListener listener;
+	private final CancellationToken cancellationToken;
+	private final Semaphore permits = new Semaphore(CONCURRENCY);
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition idle = lock.newCondition();
+	private int pending;
+	private IOException failure;
+
+	private final LongAdder foundEntries = new LongAdder();
+	private final LongAdder foundBytes = new LongAdder();
+	private final LongAdder deletedEntries = new LongAdder();
+	private final LongAdder deletedBytes = new LongAdder();
+	private final AtomicBoolean closed = new AtomicBoolean();
+	private volatile Path currentPath;
+	private volatile boolean scanComplete;
+	private Thread publisher;
+	// Touched by the publishing thread only, and by close() after it has stopped.
+	private long lastPublished = System.nanoTime();
+	private long lastBytes;
+	private long lastEntries;
+	private double smoothedBytesPerSecond;
+	private double smoothedEntriesPerSecond;
+
+	/**
+	 * @param listener          receives a snapshot about 15 times a second, or
+	 *                          {@code null}
+	 * @param cancellationToken stops the deletion when set, or {@code null}
+	 */
+	RecursiveDeleter(ProgressListener listener, CancellationToken cancellationToken) {
+		this.listener = listener;
+		this.cancellationToken = cancellationToken;
+		if (listener != null) {
+			publisher = Thread.ofVirtual().name("delete-progress").start(this::publishPeriodically);
+		}
+	}
+
+	/**
+	 * Deletes {@code root} and everything below it, without following symbolic
+	 * links, and waits until every deletion has finished.
+	 */
+	void delete(Path root) throws IOException {
+		if (!Files.exists(root, LinkOption.NOFOLLOW_LINKS)) {
+			return;
+		}
+		Deque<Directory> directories = new ArrayDeque<>();
+		try {
+			Files.walkFileTree(root, new SimpleFileVisitor<>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+					checkState();
+					Directory parent = directories.peek();
+					if (parent != null) {
+						parent.remaining.incrementAndGet();
+					}
+					directories.push(new Directory(dir, parent));
+					foundEntries.increment();
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					checkState();
+					Directory parent = directories.peek();
+					if (parent != null) {
+						parent.remaining.incrementAndGet();
+					}
+					long size = attrs.isRegularFile() ? attrs.size() : 0L;
+					foundEntries.increment();
+					foundBytes.add(size);
+					submit(file, size, parent);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+					if (exc != null) {
+						throw exc;
+					}
+					// The walk's own hold; the directory goes once its children have.
+					release(directories.pop());
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} finally {
+			awaitIdle();
+		}
+		rethrowFailure();
+	}
+
+	/**
+	 * Marks the end of the walk, so progress snapshots carry final totals.
+	 */
+	void scanComplete() {
+		scanComplete = true;
+	}
+
+	@Override
+	public void close() {
+		awaitIdle();
+		if (closed.compareAndSet(false, true) && publisher != null) {
+			publisher.interrupt();
+			try {
+				publisher.join();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			publish();
+		}
+	}
+
+	private void submit(Path file, long size, Directory parent) throws IOException {
+		try {
+			permits.acquire();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Delete interrupted", ex);
+		}
+		lock.lock();
+		try {
+			pending++;
+		} finally {
+			lock.unlock();
+		}
+		Thread.ofVirtual().name("delete-file").start(() -> {
+			try {
+				if (!failed() && !isCancelled()) {
+					Files.deleteIfExists(file);
+					deleted(file, size);
+					if (parent != null) {
+						release(parent);
+					}
+				}
+			} catch (IOException ex) {
+				fail(ex);
+			} catch (RuntimeException ex) {
+				fail(new IOException(ex.getMessage(), ex));
+			} finally {
+				permits.release();
+				lock.lock();
+				try {
+					pending--;
+					idle.signalAll();
+				} finally {
+					lock.unlock();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Drops one hold on {@code directory} and removes it, and then any parent
+	 * left empty, once nothing holds it any more.
+	 */
+	private void release(Directory directory) throws IOException {
+		while (directory != null && directory.remaining.decrementAndGet() == 0) {
+			if (failed() || isCancelled()) {
+				return;
+			}
+			Files.deleteIfExists(directory.path);
+			deleted(directory.path, 0L);
+			directory = directory.parent;
+		}
+	}
+
+	private void deleted(Path path, long size) {
+		deletedEntries.increment();
+		deletedBytes.add(size);
+		currentPath = path;
+	}
+
+	private void checkState() throws IOException {
+		rethrowFailure();
+		if (isCancelled()) {
+			throw new IOException("Delete cancelled");
+		}
+	}
+
+	private boolean isCancelled() {
+		return cancellationToken != null && cancellationToken.isCancelled();
+	}
+
+	private boolean failed() {
+		lock.lock();
+		try {
+			return failure != null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void fail(IOException ex) {
+		lock.lock();
+		try {
+			if (failure == null) {
+				failure = ex;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void rethrowFailure() throws IOException {
+		lock.lock();
+		try {
+			if (failure != null) {
+				throw failure;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void awaitIdle() {
+		lock.lock();
+		try {
+			while (pending > 0) {
+				idle.awaitUninterruptibly();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void publishPeriodically() {
+		while (!closed.get()) {
+			try {
+				Thread.sleep(PanelTransferService.PROGRESS_INTERVAL_MILLIS);
+			} catch (InterruptedException ex) {
+				return;
+			}
+			if (closed.get()) {
+				return;
+			}
+			try {
+				publish();
+			} catch (RuntimeException ex) {
+				fail(new IOException(ex.getMessage(), ex));
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Reports entries as files and freed bytes as transferred bytes. The time
+	 * left follows the entry rate, since most deletions free no data blocks
+	 * worth measuring.
+	 */
+	private void publish() {
+		long now = System.nanoTime();
+		long bytes = deletedBytes.sum();
+		long entries = deletedEntries.sum();
+		long elapsed = now - lastPublished;
+		long bytesPerSecond = 0L;
+		if (elapsed > 0L) {
+			bytesPerSecond = Math.max(0L, Math.round((bytes - lastBytes) * 1e9 / elapsed));
+			double entriesPerSecond = Math.max(0.0, (entries - lastEntries) * 1e9 / elapsed);
+			double weight = 1.0 - Math.exp(-elapsed / (double) PanelTransferService.THROUGHPUT_SMOOTHING_NANOS);
+			smoothedBytesPerSecond = smoothedBytesPerSecond == 0.0
+					? bytesPerSecond
+					: smoothedBytesPerSecond + (bytesPerSecond - smoothedBytesPerSecond) * weight;
+			smoothedEntriesPerSecond = smoothedEntriesPerSecond == 0.0
+					? entriesPerSecond
+					: smoothedEntriesPerSecond + (entriesPerSecond - smoothedEntriesPerSecond) * weight;
+		}
+		lastPublished = now;
+		lastBytes = bytes;
+		lastEntries = entries;
+
+		long totalEntries = foundEntries.sum();
+		long totalBytes = foundBytes.sum();
+		Duration remaining = null;
+		if (scanComplete && smoothedEntriesPerSecond >= 1.0) {
+			remaining = Duration.ofMillis(Math.round(Math.max(0L, totalEntries - entries) * 1000.0 / smoothedEntriesPerSecond));
+		}
+		listener.onProgress(new TransferProgress(
+				totalEntries,
+				Math.min(entries, totalEntries),
+				totalBytes,
+				Math.min(bytes, totalBytes),
+				0L,
+				currentPath,
+				null,
+				scanComplete,
+				bytesPerSecond,
+				Math.round(smoothedBytesPerSecond),
+				remaining));
+	}
+
+	private static final class Directory {
+		private final Path path;
+		private final Directory parent;
+		private final AtomicInteger remaining = new AtomicInteger(1);
+
+		private Directory(Path path, Directory parent) {
+			this.path = path;
+			this.parent = parent;
+		}
+	}
+}
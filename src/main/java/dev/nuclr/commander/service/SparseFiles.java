@@ -0,0 +1,103 @@
+package dev.nuclr.commander.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Target layout for large local copies: preallocation for dense files and
+ * holes for sparse ones.
+ *
+ * <p>
+ * Java cannot ask for a file's holes, so a source counts as sparse when one of
+ * a few blocks sampled across it reads as zeros. Such files are copied block
+ * by block and every {@link #BLOCK_SIZE} run of zeros is skipped with a
+ * positional write instead of being written, which leaves a hole on file
+ * systems that support them and costs nothing but the comparison elsewhere.
+ * Zero runs in files that were never sparse become holes as well; they read
+ * back the same. Dense files instead get their final length up front, so file
+ * systems that allocate on extension lay them out in one piece instead of
+ * growing them block by block.
+ */
+final class SparseFiles {
+
+	// Below this the probe and the preallocation are not worth their I/O.
+	static final long MIN_FILE_SIZE = 16L * 1024 * 1024;
+	// The smallest hole most file systems can keep.
+	static final int BLOCK_SIZE = 4096;
+
+	private static final int SAMPLE_COUNT = 16;
+	private static final ByteBuffer ZEROS = ByteBuffer.allocateDirect(BLOCK_SIZE).asReadOnlyBuffer();
+
+	private SparseFiles() {
+	}
+
+	/**
+	 * @return whether a block sampled from {@code input} between
+	 *         {@code position} and {@code size} is all zeros
+	 */
+	static boolean mayHaveHoles(FileChannel input, long position, long size) throws IOException {
+		long span = size - position - BLOCK_SIZE;
+		if (span < 0L) {
+			return false;
+		}
+		ByteBuffer sample = ByteBuffer.allocate(BLOCK_SIZE);
+		for (int index = 0; index < SAMPLE_COUNT; index++) {
+			long offset = (position + span * index / (SAMPLE_COUNT - 1)) / BLOCK_SIZE * BLOCK_SIZE;
+			sample.clear();
+			while (sample.hasRemaining() && input.read(sample, offset + sample.position()) > 0) {
+				// Read the whole sample.
+			}
+			if (!sample.hasRemaining() && isZero(sample.flip())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Extends {@code output} to {@code size} without writing its contents. Used
+	 * before a dense copy, so the file system can allocate the file in one go,
+	 * and after a sparse one that ends in a hole, which skipped writes alone do
+	 * not cover.
+	 */
+	static void extend(FileChannel output, long size) throws IOException {
+		if (size > 0L && output.size() < size) {
+			output.write(ByteBuffer.allocate(1), size - 1);
+		}
+	}
+
+	/**
+	 * Writes {@code block} at {@code position}, skipping zero runs of whole
+	 * {@link #BLOCK_SIZE} blocks.
+	 */
+	static void write(FileChannel output, ByteBuffer block, long position) throws IOException {
+		int start = block.position();
+		int end = block.limit();
+		int runStart = -1;
+		for (int offset = start; offset < end; offset += BLOCK_SIZE) {
+			int length = Math.min(BLOCK_SIZE, end - offset);
+			boolean zero = length == BLOCK_SIZE && isZero(block.slice(offset, length));
+			if (!zero && runStart < 0) {
+				runStart = offset;
+			} else if (zero && runStart >= 0) {
+				writeFully(output, block.slice(runStart, offset - runStart), position + runStart - start);
+				runStart = -1;
+			}
+		}
+		if (runStart >= 0) {
+			writeFully(output, block.slice(runStart, end - runStart), position + runStart - start);
+		}
+		block.position(end);
+	}
+
+	private static boolean isZero(ByteBuffer block) {
+		return block.mismatch(ZEROS.duplicate().limit(block.remaining())) < 0;
+	}
+
+	private static void writeFully(FileChannel output, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += output.write(buffer, position);
+		}
+	}
+}
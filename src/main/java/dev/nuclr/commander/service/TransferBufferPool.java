@@ -0,0 +1,146 @@
+package dev.nuclr.commander.service;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Direct copy buffers shared by all transfers, in power-of-two size classes
+ * from {@link #MIN_BLOCK_SIZE} to {@link #MAX_BLOCK_SIZE}.
+ *
+ * <p>
+ * Released buffers are kept for the next copy until {@link #MAX_POOLED_BYTES}
+ * are held, so copying many small files does not allocate a buffer per file.
+ * The block size handed out for a file is the smallest class that holds it,
+ * capped by a limit that follows the measured throughput: after every large
+ * copy the limit moves to the neighbouring class that was faster, so fast disks
+ * end up with large blocks and slow or latency-bound ones keep small blocks.
+ */
+final class TransferBufferPool {
+
+	static final int MIN_BLOCK_SIZE = 64 * 1024;
+	static final int MAX_BLOCK_SIZE = 8 * 1024 * 1024;
+	static final long MAX_POOLED_BYTES = 64L * 1024 * 1024;
+
+	private static final int INITIAL_BLOCK_SIZE = 1024 * 1024;
+	private static final int CLASS_COUNT = Integer.numberOfTrailingZeros(MAX_BLOCK_SIZE / MIN_BLOCK_SIZE) + 1;
+	// A copy has to span this many blocks before its throughput says anything about the block size.
+	private static final int MIN_MEASURED_BLOCKS = 4;
+	private static final double THROUGHPUT_WEIGHT = 0.3;
+	private static final double THROUGHPUT_MARGIN = 1.05;
+
+	private final List<Queue<ByteBuffer>> free = new ArrayList<>(CLASS_COUNT);
+	private final AtomicLong pooledBytes = new AtomicLong();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder allocatedBytes = new LongAdder();
+	private final double[] throughput = new double[CLASS_COUNT];
+	private volatile int blockSizeLimit = INITIAL_BLOCK_SIZE;
+
+	TransferBufferPool() {
+		for (int i = 0; i < CLASS_COUNT; i++) {
+			free.add(new ConcurrentLinkedQueue<>());
+		}
+	}
+
+	/**
+	 * @return the block size to copy a file of {@code fileSize} bytes with
+	 */
+	int blockSize(long fileSize) {
+		int limit = blockSizeLimit;
+		if (fileSize >= limit) {
+			return limit;
+		}
+		return sizeOf(classOf(fileSize));
+	}
+
+	/**
+	 * @return a cleared direct buffer of at least {@code size} bytes; hand it
+	 *         back with {@link #release} once the copy is done
+	 */
+	ByteBuffer acquire(int size) {
+		int index = classOf(size);
+		ByteBuffer buffer = free.get(index).poll();
+		if (buffer != null) {
+			pooledBytes.addAndGet(-buffer.capacity());
+			hits.increment();
+			return buffer.clear();
+		}
+		misses.increment();
+		allocatedBytes.add(sizeOf(index));
+		return ByteBuffer.allocateDirect(sizeOf(index));
+	}
+
+	void release(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect() || Integer.bitCount(buffer.capacity()) != 1
+				|| buffer.capacity() < MIN_BLOCK_SIZE || buffer.capacity() > MAX_BLOCK_SIZE) {
+			return;
+		}
+		int capacity = buffer.capacity();
+		if (pooledBytes.addAndGet(capacity) > MAX_POOLED_BYTES) {
+			pooledBytes.addAndGet(-capacity);
+			return;
+		}
+		free.get(classOf(capacity)).add(buffer);
+	}
+
+	/**
+	 * Feeds the throughput of one copy into the block size limit. Copies that
+	 * were too short to measure, or that used a block size other than the
+	 * current limit, only update the statistics of their size class.
+	 */
+	synchronized void recordThroughput(int blockSize, long bytes, long nanos) {
+		if (nanos <= 0L || bytes < (long) MIN_MEASURED_BLOCKS * blockSize) {
+			return;
+		}
+		int index = classOf(blockSize);
+		double sample = (double) bytes / nanos;
+		throughput[index] = throughput[index] == 0.0
+				? sample
+				: throughput[index] * (1.0 - THROUGHPUT_WEIGHT) + sample * THROUGHPUT_WEIGHT;
+		if (blockSize != blockSizeLimit) {
+			return;
+		}
+		double current = throughput[index];
+		double smaller = index > 0 ? throughput[index - 1] : 0.0;
+		double larger = index < CLASS_COUNT - 1 ? throughput[index + 1] : 0.0;
+		if (index < CLASS_COUNT - 1 && (larger > current * THROUGHPUT_MARGIN
+				|| larger == 0.0 && (smaller == 0.0 || current > smaller * THROUGHPUT_MARGIN))) {
+			blockSizeLimit = sizeOf(index + 1);
+		} else if (index > 0 && smaller > current * THROUGHPUT_MARGIN) {
+			blockSizeLimit = sizeOf(index - 1);
+		}
+	}
+
+	PanelTransferService.BufferPoolStats stats() {
+		int pooledBuffers = 0;
+		for (Queue<ByteBuffer> queue : free) {
+			pooledBuffers += queue.size();
+		}
+		return new PanelTransferService.BufferPoolStats(
+				hits.sum(),
+				misses.sum(),
+				pooledBuffers,
+				pooledBytes.get(),
+				allocatedBytes.sum(),
+				blockSizeLimit);
+	}
+
+	private static int classOf(long size) {
+		if (size <= MIN_BLOCK_SIZE) {
+			return 0;
+		}
+		if (size >= MAX_BLOCK_SIZE) {
+			return CLASS_COUNT - 1;
+		}
+		return 64 - Long.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_BLOCK_SIZE);
+	}
+
+	private static int sizeOf(int index) {
+		return MIN_BLOCK_SIZE << index;
+	}
+}
@@ -0,0 +1,218 @@
+package dev.nuclr.commander.service;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A transfer filter expression compiled once per transfer.
+ *
+ * <p>
+ * The expression is a list of globs separated by {@code ;} or line breaks. A
+ * glob prefixed with {@code !} excludes, any other glob includes. Globs are
+ * matched against the path relative to the transfer root and against the file
+ * name. An entry is taken when no include glob is given or one matches, and no
+ * exclude glob matches; a directory matched by an exclude glob is dropped with
+ * everything below it.
+ *
+ * <p>
+ * Include globs that contain a {@code /} are also split into segments, so the
+ * walk can tell from a directory's relative path alone whether any path below
+ * it could still match and skip the subtree otherwise. Globs without a
+ * {@code /} match file names at any depth and never rule out a subtree.
+ */
+public final class TransferFilter {
+
+	public static final TransferFilter ALL = new TransferFilter(List.of(), List.of());
+
+	private static final Pattern SEPARATORS = Pattern.compile("[;\\r\\n]+");
+	private static final String ANY_DEPTH = "**";
+
+	private final List<Glob> includes;
+	private final List<Glob> excludes;
+
+	private TransferFilter(List<Glob> includes, List<Glob> excludes) {
+		this.includes = includes;
+		this.excludes = excludes;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if a glob is malformed
+	 */
+	public static TransferFilter compile(String expression) {
+		if (expression == null || expression.isBlank()) {
+			return ALL;
+		}
+		List<Glob> includes = new ArrayList<>();
+		List<Glob> excludes = new ArrayList<>();
+		for (String token : SEPARATORS.split(expression)) {
+			String glob = token.trim();
+			boolean exclude = glob.startsWith("!");
+			if (exclude) {
+				glob = glob.substring(1).trim();
+			}
+			if (glob.isEmpty()) {
+				continue;
+			}
+			(exclude ? excludes : includes).add(Glob.compile(glob.replace('\\', '/')));
+		}
+		return includes.isEmpty() && excludes.isEmpty() ? ALL : new TransferFilter(List.copyOf(includes), List.copyOf(excludes));
+	}
+
+	public boolean isEmpty() {
+		return includes.isEmpty() && excludes.isEmpty();
+	}
+
+	boolean includeFile(Path root, Path file) {
+		if (isEmpty() || file == null) {
+			return true;
+		}
+		Path relative = relativize(root, file);
+		Path name = file.getFileName();
+		return !matchesAny(excludes, relative, name) && (includes.isEmpty() || matchesAny(includes, relative, name));
+	}
+
+	/**
+	 * @return whether {@code directory} itself is selected, regardless of what
+	 *         lies below it
+	 */
+	boolean includeDirectory(Path root, Path directory) {
+		return includeFile(root, directory);
+	}
+
+	/**
+	 * @return {@code false} when nothing below {@code directory} can be
+	 *         selected, so the walk may skip the subtree
+	 */
+	boolean descend(Path root, Path directory) {
+		if (isEmpty() || directory == null || directory.equals(root)) {
+			return true;
+		}
+		Path relative = relativize(root, directory);
+		if (matchesAny(excludes, relative, directory.getFileName())) {
+			return false;
+		}
+		if (includes.isEmpty()) {
+			return true;
+		}
+		for (Glob include : includes) {
+			if (include.canMatchBelow(relative)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean matchesAny(List<Glob> globs, Path relative, Path name) {
+		for (Glob glob : globs) {
+			if (glob.matcher().matches(relative) || name != null && glob.matcher().matches(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Path relativize(Path root, Path path) {
+		if (root != null && path.startsWith(root)) {
+			return root.relativize(path);
+		}
+		Path name = path.getFileName();
+		return name != null ? name : path;
+	}
+
+	/**
+	 * One glob with its per-segment matchers; {@code segments} is empty when the
+	 * glob cannot be decided segment by segment and may match below any
+	 * directory.
+	 */
+	private record Glob(PathMatcher matcher, List<String> segments, List<PathMatcher> segmentMatchers) {
+
+		private static Glob compile(String glob) {
+			PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+			if (!glob.contains("/") || glob.startsWith("/") || hasSeparatorInGroup(glob)) {
+				return new Glob(matcher, List.of(), List.of());
+			}
+			List<String> segments = List.of(glob.split("/+"));
+			List<PathMatcher> segmentMatchers = new ArrayList<>(segments.size());
+			for (String segment : segments) {
+				segmentMatchers.add(segment.contains(ANY_DEPTH)
+						? null
+						: FileSystems.getDefault().getPathMatcher("glob:" + segment));
+			}
+			return new Glob(matcher, segments, segmentMatchers);
+		}
+
+		private static boolean hasSeparatorInGroup(String glob) {
+			int depth = 0;
+			for (int i = 0; i < glob.length(); i++) {
+				char c = glob.charAt(i);
+				if (c == '{' || c == '[') {
+					depth++;
+				} else if ((c == '}' || c == ']') && depth > 0) {
+					depth--;
+				} else if (c == '/' && depth > 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Runs the directory's names through the segments, with {@code **} taking
+		 * any number of names, and reports whether segments are left over for a
+		 * path below the directory to match.
+		 */
+		private boolean canMatchBelow(Path directory) {
+			if (segments.isEmpty()) {
+				return true;
+			}
+			boolean[] states = new boolean[segments.size() + 1];
+			states[0] = true;
+			skipAnyDepth(states);
+			for (int n = 0; n < directory.getNameCount(); n++) {
+				Path name = directory.getName(n);
+				boolean[] next = new boolean[states.length];
+				boolean any = false;
+				for (int s = 0; s < segments.size(); s++) {
+					if (!states[s]) {
+						continue;
+					}
+					PathMatcher segmentMatcher = segmentMatchers.get(s);
+					if (segmentMatcher == null) {
+						if (!segments.get(s).equals(ANY_DEPTH)) {
+							// A segment like "src**" may span any number of names.
+							return true;
+						}
+						next[s] = true;
+						any = true;
+					} else if (segmentMatcher.matches(name)) {
+						next[s + 1] = true;
+						any = true;
+					}
+				}
+				if (!any) {
+					return false;
+				}
+				skipAnyDepth(next);
+				states = next;
+			}
+			for (int s = 0; s < segments.size(); s++) {
+				if (states[s]) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void skipAnyDepth(boolean[] states) {
+			for (int s = 0; s < segments.size(); s++) {
+				if (states[s] && segments.get(s).equals(ANY_DEPTH)) {
+					states[s + 1] = true;
+				}
+			}
+		}
+	}
+}
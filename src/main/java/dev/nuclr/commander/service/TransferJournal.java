@@ -0,0 +1,428 @@
+package dev.nuclr.commander.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dev.nuclr.commander.service.PanelTransferService.AccessPolicy;
+import dev.nuclr.commander.service.PanelTransferService.ConflictResolution;
+
+/**
+ * Append-only record of a running transfer, kept under
+ * {@code ~/.nuclr/transfers} until the transfer finishes.
+ *
+ * <p>
+ * The first line describes the transfer itself; every further line records
+ * where a source root went, that a file copy started or completed, or how far
+ * a large file had been written. Partial offsets are only recorded after the
+ * target bytes below them have been forced to disk, so a resumed copy can trust
+ * them once the last window before the offset matches the source. Completed
+ * files are not forced one by one; a resume still compares their size with the
+ * source before skipping them.
+ *
+ * <p>
+ * Only transfers between paths of the default file system are journaled; a
+ * disabled journal accepts every call and records nothing.
+ */
+final class TransferJournal implements AutoCloseable {
+
+	static final String DIRECTORY = "transfers";
+	static final long CHECKPOINT_INTERVAL = 64L * 1024 * 1024;
+
+	private static final String EXTENSION = ".journal";
+	private static final int VERIFY_WINDOW = 1024 * 1024;
+	private static final ObjectMapper MAPPER = new ObjectMapper()
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+	private final Path file;
+	private final Header header;
+	private final FileChannel channel;
+	private final AtomicLong nextId = new AtomicLong(1L);
+	private final Map<String, Path> rootTargets = new HashMap<>();
+	private final Map<String, FileEntry> fileEntries = new HashMap<>();
+	private final Map<Long, FileEntry> fileEntriesById = new HashMap<>();
+
+	private TransferJournal(Path file, Header header, FileChannel channel) {
+		this.file = file;
+		this.header = header;
+		this.channel = channel;
+	}
+
+	static TransferJournal disabled() {
+		return new TransferJournal(null, null, null);
+	}
+
+	/**
+	 * Creates the journal of a new transfer, or a disabled journal when one of
+	 * its paths lives outside the default file system.
+	 */
+	static TransferJournal create(
+			List<Path> roots,
+			List<Path> destinationDirectories,
+			PanelTransferService.TransferOptions options,
+			boolean move) throws IOException {
+		if (!journaled(roots) || !journaled(destinationDirectories)) {
+			return disabled();
+		}
+		Header header = new Header(
+				move,
+				roots.stream().map(path -> path.toAbsolutePath().toString()).toList(),
+				destinationDirectories.stream().map(path -> path.toAbsolutePath().toString()).toList(),
+				options != null ? options.conflictResolution() : null,
+				options != null ? options.accessPolicy() : null,
+				options != null && options.preserveTimestamps(),
+				options != null && options.followSymbolicLinks(),
+				options != null && options.compareContents(),
+				options != null && options.deltaCopy(),
+				options != null && options.verify(),
+				options != null && options.linkDuplicates(),
+				options != null && options.diskOrder(),
+				options != null ? options.filterExpression() : null,
+				System.currentTimeMillis());
+
+		Path directory = LocalDataLocation.resolve(DIRECTORY);
+		Files.createDirectories(directory);
+		Path file = directory.resolve(UUID.randomUUID() + EXTENSION);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		TransferJournal journal = new TransferJournal(file, header, channel);
+		try {
+			journal.append(MAPPER.writeValueAsString(header));
+			channel.force(false);
+		} catch (IOException ex) {
+			journal.delete();
+			throw ex;
+		}
+		return journal;
+	}
+
+	/**
+	 * Reopens an interrupted transfer for appending. A line torn by the crash is
+	 * cut off before new records are written.
+	 */
+	static TransferJournal open(String id) throws IOException {
+		Path file = journalFile(id);
+		byte[] bytes = Files.readAllBytes(file);
+		int end = lastLineEnd(bytes);
+		List<String> lines = List.of(new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n"));
+		if (lines.isEmpty() || lines.get(0).isBlank()) {
+			throw new IOException("Transfer journal is empty: " + file);
+		}
+		Header header = MAPPER.readValue(lines.get(0), Header.class);
+
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+		TransferJournal journal = new TransferJournal(file, header, channel);
+		try {
+			channel.truncate(end);
+			channel.position(end);
+			for (String line : lines.subList(1, lines.size())) {
+				if (!line.isBlank()) {
+					journal.replay(MAPPER.readValue(line, Line.class));
+				}
+			}
+		} catch (IOException ex) {
+			journal.close();
+			throw ex;
+		}
+		return journal;
+	}
+
+	/**
+	 * Lists the transfers whose journal was left behind, oldest first. Journals
+	 * that cannot be read are ignored.
+	 */
+	static List<Pending> pending() {
+		Path directory = LocalDataLocation.resolve(DIRECTORY);
+		if (!Files.isDirectory(directory)) {
+			return List.of();
+		}
+		List<Pending> pending = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+			for (Path file : stream) {
+				Header header = readHeader(file);
+				if (header != null) {
+					String name = file.getFileName().toString();
+					pending.add(new Pending(name.substring(0, name.length() - EXTENSION.length()), header));
+				}
+			}
+		} catch (IOException ex) {
+			return List.of();
+		}
+		pending.sort((left, right) -> Long.compare(left.header().started(), right.header().started()));
+		return pending;
+	}
+
+	static void discard(String id) throws IOException {
+		Files.deleteIfExists(journalFile(id));
+	}
+
+	Header header() {
+		return header;
+	}
+
+	boolean enabled() {
+		return channel != null;
+	}
+
+	/**
+	 * @return the target a root was heading to before the interruption, or
+	 *         {@code null} if it had not been started
+	 */
+	Path rootTarget(Path sourceRoot, int destinationIndex) {
+		return rootTargets.get(key(sourceRoot, destinationIndex));
+	}
+
+	void rootStarted(Path sourceRoot, int destinationIndex, Path targetRoot) throws IOException {
+		if (enabled()) {
+			append(new Line("root", null, absolute(sourceRoot), destinationIndex, targetRoot.toString(), null));
+		}
+	}
+
+	/**
+	 * @return the state of a file that was started before the interruption, or
+	 *         {@code null} if it had not been reached
+	 */
+	FileEntry file(Path sourcePath, int destinationIndex) {
+		return fileEntries.get(key(sourcePath, destinationIndex));
+	}
+
+	/**
+	 * Records that a file is about to be written, so that on resume its target is
+	 * known to belong to this transfer rather than being a conflict.
+	 */
+	FileEntry fileStarted(Path sourcePath, int destinationIndex, Path targetPath) throws IOException {
+		if (!enabled()) {
+			return new FileEntry(0L, targetPath);
+		}
+		FileEntry entry = new FileEntry(nextId.getAndIncrement(), targetPath);
+		append(new Line("start", entry.id, absolute(sourcePath), destinationIndex, targetPath.toString(), null));
+		return entry;
+	}
+
+	/**
+	 * Removes the journal once the transfer has finished or was given up.
+	 */
+	void delete() throws IOException {
+		close();
+		if (file != null) {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null && channel.isOpen()) {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Checks that the bytes of {@code output} just below {@code offset} still
+	 * match the source, so that a copy can continue from there.
+	 */
+	static boolean verifyPartial(FileChannel input, FileChannel output, long offset) throws IOException {
+		if (offset <= 0L || output.size() < offset || input.size() < offset) {
+			return false;
+		}
+		int length = (int) Math.min(VERIFY_WINDOW, offset);
+		ByteBuffer source = ByteBuffer.allocate(length);
+		ByteBuffer target = ByteBuffer.allocate(length);
+		readFully(input, source, offset - length);
+		readFully(output, target, offset - length);
+		return source.flip().equals(target.flip());
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read < 0) {
+				throw new IOException("Unexpected end of file while verifying a partial copy");
+			}
+		}
+	}
+
+	private void replay(Line line) {
+		if (line.event() == null) {
+			return;
+		}
+		switch (line.event()) {
+			case "root" -> rootTargets.put(key(line.source(), line.destination()), Path.of(line.target()));
+			case "start" -> {
+				FileEntry entry = new FileEntry(line.id(), Path.of(line.target()));
+				fileEntries.put(key(line.source(), line.destination()), entry);
+				fileEntriesById.put(entry.id, entry);
+				nextId.accumulateAndGet(line.id() + 1L, Math::max);
+			}
+			case "done" -> forId(line.id(), entry -> entry.completed = true);
+			case "partial" -> forId(line.id(), entry -> entry.offset = Math.max(entry.offset, line.offset()));
+			default -> {
+			}
+		}
+	}
+
+	private void forId(Long id, Consumer<FileEntry> action) {
+		FileEntry entry = id != null ? fileEntriesById.get(id) : null;
+		if (entry != null) {
+			action.accept(entry);
+		}
+	}
+
+	private void append(Line line) throws IOException {
+		append(MAPPER.writeValueAsString(line));
+	}
+
+	private synchronized void append(String json) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap((json + "\n").getBytes(StandardCharsets.UTF_8));
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static Header readHeader(Path file) {
+		try (var lines = Files.lines(file, StandardCharsets.UTF_8)) {
+			String first = lines.findFirst().orElse(null);
+			return first != null ? MAPPER.readValue(first, Header.class) : null;
+		} catch (IOException | RuntimeException ex) {
+			return null;
+		}
+	}
+
+	private static Path journalFile(String id) throws IOException {
+		if (id == null || !id.matches("[0-9a-fA-F-]+")) {
+			throw new IOException("Unknown transfer journal: " + id);
+		}
+		return LocalDataLocation.resolve(DIRECTORY, id + EXTENSION);
+	}
+
+	private static int lastLineEnd(byte[] bytes) {
+		for (int index = bytes.length - 1; index >= 0; index--) {
+			if (bytes[index] == '\n') {
+				return index + 1;
+			}
+		}
+		return 0;
+	}
+
+	private static boolean journaled(List<Path> paths) {
+		return paths.stream().allMatch(path -> path.getFileSystem() == FileSystems.getDefault());
+	}
+
+	private static String key(Path path, int destinationIndex) {
+		return key(absolute(path), destinationIndex);
+	}
+
+	private static String absolute(Path path) {
+		return path.toAbsolutePath().toString();
+	}
+
+	private static String key(String path, Integer destinationIndex) {
+		return destinationIndex + ":" + path;
+	}
+
+	/**
+	 * What a journaled transfer was asked to do; callbacks are not part of it and
+	 * are supplied again on resume.
+	 */
+	record Header(
+			boolean move,
+			List<String> sources,
+			List<String> destinations,
+			ConflictResolution conflictResolution,
+			AccessPolicy accessPolicy,
+			boolean preserveTimestamps,
+			boolean followSymbolicLinks,
+			boolean compareContents,
+			boolean deltaCopy,
+			boolean verify,
+			boolean linkDuplicates,
+			boolean diskOrder,
+			String filterExpression,
+			long started) {
+	}
+
+	record Pending(String id, Header header) {
+	}
+
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private record Line(String event, Long id, String source, Integer destination, String target, Long offset) {
+	}
+
+	/**
+	 * One file written by the transfer into one destination.
+	 */
+	final class FileEntry {
+		private final long id;
+		private final Path target;
+		private volatile boolean completed;
+		private volatile long offset;
+
+		private FileEntry(long id, Path target) {
+			this.id = id;
+			this.target = target;
+		}
+
+		Path target() {
+			return target;
+		}
+
+		boolean completed() {
+			return completed;
+		}
+
+		long offset() {
+			return offset;
+		}
+
+		/**
+		 * @return whether the completed target still looks like a full copy of
+		 *         the source
+		 */
+		boolean intact(long sourceSize, boolean symbolicLink) {
+			try {
+				if (symbolicLink) {
+					return Files.exists(target, LinkOption.NOFOLLOW_LINKS);
+				}
+				return Files.isRegularFile(target, LinkOption.NOFOLLOW_LINKS) && Files.size(target) == sourceSize;
+			} catch (IOException ex) {
+				return false;
+			}
+		}
+
+		/**
+		 * Forces the target up to {@code position} and then records the offset.
+		 */
+		void checkpoint(FileChannel output, long position) throws IOException {
+			if (!enabled()) {
+				return;
+			}
+			output.force(false);
+			append(new Line("partial", id, null, null, null, position));
+			channel.force(false);
+			offset = position;
+		}
+
+		void markCompleted() throws IOException {
+			completed = true;
+			if (enabled()) {
+				append(new Line("done", id, null, null, null, null));
+			}
+		}
+	}
+}
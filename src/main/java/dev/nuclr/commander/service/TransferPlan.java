@@ -0,0 +1,481 @@
+package dev.nuclr.commander.service;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Streaming description of a transfer, produced by a single walk over the
+ * selected sources.
+ *
+ * <p>
+ * The walk runs on its own virtual thread and records every included entry
+ * together with its size, modification time and whether its natural target
+ * already exists in each destination. Existence is looked up in a listing of
+ * the target directory, taken once per directory instead of a stat per entry;
+ * only targets that turn out to exist are stat'ed when targets are compared, to
+ * tell whether an existing target file matches the source by size and
+ * modification time. Consumers iterate the recorded entries through a {@link Cursor}
+ * while the walk is still running, so copying starts with the first entry
+ * instead of after the whole tree has been counted. {@link #fileCount()} and
+ * {@link #byteCount()} grow as the scan advances and are final once
+ * {@link #isComplete()} returns {@code true}.
+ *
+ * <p>
+ * Entries are dropped as the cursor passes them, and the walk pauses while
+ * {@link #MAX_PENDING_ENTRIES} of them wait to be consumed, resuming once half
+ * of them have been. Together with listings that are only kept for the
+ * directories along the walk's current path, this keeps the plan's memory the
+ * same for ten thousand entries and for fifty million; in exchange a plan can
+ * be read only once, and the counts of a tree larger than the window become
+ * final only when the copy gets close to its end.
+ */
+final class TransferPlan implements AutoCloseable {
+
+	// Conflict state is tracked as a bit mask; further destinations are probed on demand.
+	static final int MAX_TRACKED_DESTINATIONS = Long.SIZE;
+	// How far the walk may run ahead of the consumer.
+	static final int MAX_PENDING_ENTRIES = 32 * 1024;
+	// Larger target directories are not listed; their entries are looked up one by one.
+	static final int MAX_LISTED_NAMES = 64 * 1024;
+
+	private static final boolean CASE_INSENSITIVE_NAMES = isCaseInsensitivePlatform();
+
+	private final List<Path> roots;
+	private final List<Path> destinationDirectories;
+	private final boolean followSymbolicLinks;
+	private final boolean compareTargets;
+	private final TransferFilter filter;
+	private final PanelTransferService.CancellationToken cancellationToken;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private final Condition drained = lock.newCondition();
+	private final Deque<Entry> entries = new ArrayDeque<>();
+	private boolean cursorTaken;
+	// Target directory listings along the walk's current path, null where listing failed; scanning thread only.
+	// Each is dropped when the walk leaves its directory, so files written by this transfer never read as conflicts.
+	private final Map<Path, Set<String>> targetListings = new HashMap<>();
+	private volatile long fileCount;
+	private volatile long byteCount;
+	private volatile boolean complete;
+	private volatile boolean closed;
+	private IOException failure;
+
+	private TransferPlan(
+			List<Path> roots,
+			List<Path> destinationDirectories,
+			boolean followSymbolicLinks,
+			boolean compareTargets,
+			TransferFilter filter,
+			PanelTransferService.CancellationToken cancellationToken) {
+		this.roots = List.copyOf(roots);
+		this.destinationDirectories = List.copyOf(destinationDirectories);
+		this.followSymbolicLinks = followSymbolicLinks;
+		this.compareTargets = compareTargets;
+		this.filter = filter;
+		this.cancellationToken = cancellationToken;
+	}
+
+	/**
+	 * Starts scanning {@code roots} in the background and returns immediately.
+	 */
+	static TransferPlan start(
+			List<Path> roots,
+			List<Path> destinationDirectories,
+			boolean followSymbolicLinks,
+			boolean compareTargets,
+			TransferFilter filter,
+			PanelTransferService.CancellationToken cancellationToken) {
+		TransferPlan plan = new TransferPlan(roots, destinationDirectories, followSymbolicLinks, compareTargets, filter, cancellationToken);
+		Thread.ofVirtual().name("transfer-plan").start(plan::scan);
+		return plan;
+	}
+
+	List<Path> roots() {
+		return roots;
+	}
+
+	long fileCount() {
+		return fileCount;
+	}
+
+	long byteCount() {
+		return byteCount;
+	}
+
+	boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * @return the plan's only cursor
+	 * @throws IllegalStateException if it was taken before; entries it has
+	 *                               passed are gone
+	 */
+	Cursor cursor() {
+		lock.lock();
+		try {
+			if (cursorTaken) {
+				throw new IllegalStateException("A transfer plan can be read only once");
+			}
+			cursorTaken = true;
+			return new Cursor();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		signal();
+	}
+
+	private void scan() {
+		try {
+			for (int rootIndex = 0; rootIndex < roots.size() && !stopped(); rootIndex++) {
+				scanRoot(rootIndex, roots.get(rootIndex));
+			}
+			if (stopped()) {
+				fail(new IOException("Transfer cancelled"));
+			}
+		} catch (IOException ex) {
+			fail(ex);
+		} catch (RuntimeException ex) {
+			fail(new IOException("Failed to scan transfer sources", ex));
+		} finally {
+			complete = true;
+			signal();
+		}
+	}
+
+	private void scanRoot(int rootIndex, Path root) throws IOException {
+		if (Files.isSymbolicLink(root) && !followSymbolicLinks) {
+			record(rootIndex, root, root, Kind.SYMBOLIC_LINK, 0L, 0L, null, -1L);
+			return;
+		}
+		if (!Files.isDirectory(root)) {
+			BasicFileAttributes attrs = attributes(root);
+			Map<String, Object> unix = unixAttributes(root, attrs);
+			record(rootIndex, root, root, Kind.FILE, attrs != null ? attrs.size() : 0L, lastModified(attrs), linkKey(attrs, unix), inode(unix));
+			return;
+		}
+
+		// Directories that only qualify through something below them, recorded once that shows up.
+		Deque<Path> pendingDirectories = new ArrayDeque<>();
+		Set<FileVisitOption> visitOptions = followSymbolicLinks ? Set.of(FileVisitOption.FOLLOW_LINKS) : Set.of();
+		Files.walkFileTree(root, visitOptions, Integer.MAX_VALUE, new SimpleFileVisitor<>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (stopped()) {
+					return FileVisitResult.TERMINATE;
+				}
+				if (root.equals(dir)) {
+					record(rootIndex, root, dir, Kind.DIRECTORY, 0L, 0L, null, -1L);
+					return FileVisitResult.CONTINUE;
+				}
+				boolean included = filter.includeDirectory(root, dir);
+				if (!filter.descend(root, dir)) {
+					if (included) {
+						recordPendingDirectories();
+						record(rootIndex, root, dir, Kind.DIRECTORY, 0L, 0L, null, -1L);
+					}
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				if (included) {
+					recordPendingDirectories();
+					record(rootIndex, root, dir, Kind.DIRECTORY, 0L, 0L, null, -1L);
+				} else {
+					pendingDirectories.addLast(dir);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				if (exc != null) {
+					throw exc;
+				}
+				if (dir.equals(pendingDirectories.peekLast())) {
+					pendingDirectories.removeLast();
+				}
+				forgetListings(root, dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (stopped()) {
+					return FileVisitResult.TERMINATE;
+				}
+				if (!filter.includeFile(root, file)) {
+					return FileVisitResult.CONTINUE;
+				}
+				recordPendingDirectories();
+				if (attrs.isSymbolicLink()) {
+					record(rootIndex, root, file, Kind.SYMBOLIC_LINK, 0L, 0L, null, -1L);
+				} else {
+					Map<String, Object> unix = unixAttributes(file, attrs);
+					record(rootIndex, root, file, Kind.FILE, attrs.size(), lastModified(attrs), linkKey(attrs, unix), inode(unix));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			private void recordPendingDirectories() {
+				while (!pendingDirectories.isEmpty()) {
+					record(rootIndex, root, pendingDirectories.removeFirst(), Kind.DIRECTORY, 0L, 0L, null, -1L);
+				}
+			}
+		});
+	}
+
+	private void record(int rootIndex, Path root, Path source, Kind kind, long size, long lastModified, Object linkKey, long inode) {
+		long conflicts = 0L;
+		long unchanged = 0L;
+		int tracked = Math.min(destinationDirectories.size(), MAX_TRACKED_DESTINATIONS);
+		for (int index = 0; index < tracked; index++) {
+			Path target = target(root, source, index);
+			Boolean listed = listed(target);
+			if (!compareTargets) {
+				if (listed != null ? listed : Files.exists(target)) {
+					conflicts |= 1L << index;
+				}
+				continue;
+			}
+			BasicFileAttributes targetAttrs = Boolean.FALSE.equals(listed) ? null : attributes(target);
+			if (targetAttrs != null) {
+				conflicts |= 1L << index;
+				if (kind == Kind.FILE && PanelTransferService.isUnchanged(size, lastModified, targetAttrs)) {
+					unchanged |= 1L << index;
+				}
+			}
+		}
+
+		Entry entry = new Entry(rootIndex, source, root.equals(source), kind, Math.max(0L, size), lastModified, conflicts, unchanged, linkKey, inode);
+		lock.lock();
+		try {
+			if (entries.size() >= MAX_PENDING_ENTRIES) {
+				while (entries.size() > MAX_PENDING_ENTRIES / 2 && !closed) {
+					drained.awaitUninterruptibly();
+				}
+			}
+			entries.addLast(entry);
+			if (kind != Kind.DIRECTORY) {
+				fileCount++;
+				byteCount += entry.size();
+			}
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private Path target(Path root, Path source, int destinationIndex) {
+		Path rootTarget = destinationDirectories.get(destinationIndex).resolve(PanelTransferService.targetName(root));
+		return PanelTransferService.resolveInTargetFileSystem(rootTarget, root.relativize(source));
+	}
+
+	private void forgetListings(Path root, Path directory) {
+		int tracked = Math.min(destinationDirectories.size(), MAX_TRACKED_DESTINATIONS);
+		for (int index = 0; index < tracked; index++) {
+			targetListings.remove(target(root, directory, index));
+		}
+	}
+
+	/**
+	 * @return whether {@code target} shows up in the listing of its directory,
+	 *         or {@code null} when that directory could not be listed
+	 */
+	private Boolean listed(Path target) {
+		Path directory = target.getParent();
+		Path name = target.getFileName();
+		if (directory == null || name == null) {
+			return null;
+		}
+		Set<String> names = targetListings.get(directory);
+		if (names == null && !targetListings.containsKey(directory)) {
+			names = list(directory);
+			targetListings.put(directory, names);
+		}
+		return names != null ? names.contains(nameKey(name)) : null;
+	}
+
+	private static Set<String> list(Path directory) {
+		Set<String> names = new HashSet<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path child : stream) {
+				Path name = child.getFileName();
+				if (name != null) {
+					names.add(nameKey(name));
+				}
+				if (names.size() > MAX_LISTED_NAMES) {
+					return null;
+				}
+			}
+			return names;
+		} catch (NoSuchFileException | NotDirectoryException ex) {
+			// Nothing can exist below a target directory that is not there.
+			return Set.of();
+		} catch (IOException | RuntimeException ex) {
+			return null;
+		}
+	}
+
+	private static String nameKey(Path name) {
+		String text = name.toString();
+		return CASE_INSENSITIVE_NAMES && name.getFileSystem() == FileSystems.getDefault() ? text.toLowerCase(Locale.ROOT) : text;
+	}
+
+	private static boolean isCaseInsensitivePlatform() {
+		String os = System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+		return os.contains("win") || os.contains("mac");
+	}
+
+	private BasicFileAttributes attributes(Path path) {
+		try {
+			return Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (IOException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the link count and inode number of a file, or an empty map where
+	 *         the file system has no unix view; costs one more stat per file
+	 *         where it does
+	 */
+	private static Map<String, Object> unixAttributes(Path file, BasicFileAttributes attrs) {
+		if (attrs == null || attrs.fileKey() == null || !file.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+			return Map.of();
+		}
+		try {
+			return Files.readAttributes(file, "unix:nlink,ino");
+		} catch (IOException | RuntimeException ex) {
+			return Map.of();
+		}
+	}
+
+	/**
+	 * @return the inode of a file that has further hard links, or {@code null}
+	 */
+	private static Object linkKey(BasicFileAttributes attrs, Map<String, Object> unix) {
+		return unix.get("nlink") instanceof Integer links && links > 1 ? attrs.fileKey() : null;
+	}
+
+	private static long inode(Map<String, Object> unix) {
+		return unix.get("ino") instanceof Long inode ? inode : -1L;
+	}
+
+	private long lastModified(BasicFileAttributes attrs) {
+		return attrs != null ? attrs.lastModifiedTime().toMillis() : 0L;
+	}
+
+	private boolean stopped() {
+		return closed || cancellationToken != null && cancellationToken.isCancelled();
+	}
+
+	private void fail(IOException ex) {
+		lock.lock();
+		try {
+			failure = ex;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void signal() {
+		lock.lock();
+		try {
+			changed.signalAll();
+			drained.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	enum Kind {
+		DIRECTORY,
+		FILE,
+		SYMBOLIC_LINK
+	}
+
+	/**
+	 * One planned entry. {@code conflicts} has bit {@code i} set when the natural
+	 * target in destination {@code i} existed at scan time, {@code unchanged}
+	 * when that target was compared and matched the source. {@code linkKey} is
+	 * the inode of a file that is hard-linked elsewhere, shared by all of its
+	 * links, and {@code null} otherwise. {@code inode} is the file's inode
+	 * number, or -1 where the file system does not tell.
+	 */
+	record Entry(int rootIndex, Path source, boolean root, Kind kind, long size, long lastModified, long conflicts, long unchanged, Object linkKey, long inode) {
+
+		boolean conflictsIn(int destinationIndex) {
+			return destinationIndex < MAX_TRACKED_DESTINATIONS && (conflicts & (1L << destinationIndex)) != 0L;
+		}
+
+		boolean unchangedIn(int destinationIndex) {
+			return destinationIndex < MAX_TRACKED_DESTINATIONS && (unchanged & (1L << destinationIndex)) != 0L;
+		}
+
+		boolean conflictTracked(int destinationIndex) {
+			return destinationIndex < MAX_TRACKED_DESTINATIONS;
+		}
+	}
+
+	/**
+	 * Iterates the plan in walk order, blocking while the scan is behind.
+	 */
+	final class Cursor {
+
+		/**
+		 * @return the next entry, or {@code null} once the scan has finished and
+		 *         every entry has been returned
+		 * @throws IOException if the scan failed or the plan was closed
+		 */
+		Entry next() throws IOException {
+			lock.lock();
+			try {
+				while (true) {
+					if (closed) {
+						throw new IOException("Transfer cancelled");
+					}
+					Entry entry = entries.pollFirst();
+					if (entry != null) {
+						if (entries.size() == MAX_PENDING_ENTRIES / 2) {
+							drained.signalAll();
+						}
+						return entry;
+					}
+					if (failure != null) {
+						throw failure;
+					}
+					if (complete) {
+						return null;
+					}
+					changed.awaitUninterruptibly();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
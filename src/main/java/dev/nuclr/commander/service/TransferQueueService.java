@@ -0,0 +1,610 @@
+package dev.nuclr.commander.service;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dev.nuclr.commander.service.PanelTransferService.AccessPolicy;
+import dev.nuclr.commander.service.PanelTransferService.ConflictResolution;
+import dev.nuclr.commander.service.PanelTransferService.ConflictResolver;
+import dev.nuclr.commander.service.PanelTransferService.PendingTransfer;
+import dev.nuclr.commander.service.PanelTransferService.TransferOptions;
+import dev.nuclr.commander.service.PanelTransferService.TransferProgress;
+import dev.nuclr.platform.plugin.NuclrResourcePath;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs copies and moves one after another in the background instead of each
+ * on its own, so two large transfers to the same disk do not fight over it.
+ *
+ * <p>
+ * Jobs are started in priority order, and in queue order within a priority, as
+ * long as fewer than {@link #MAX_RUNNING_JOBS} run and none of the devices a
+ * job reads from or writes to is already used by {@link #MAX_JOBS_PER_DEVICE}
+ * running jobs. A job that cannot start yet does not hold back the jobs behind
+ * it that use other devices.
+ *
+ * <p>
+ * Pausing a running job parks its copy threads at their next cancellation
+ * check and gives its slot to the next job; it continues where it stopped once
+ * it is resumed and a slot is free again. Jobs that have not finished are kept
+ * in {@code ~/.nuclr/transfers/queue.json}; after a restart {@link #restore}
+ * queues them again, and jobs that were running pick up their transfer journal.
+ */
+@Service
+@Slf4j
+public class TransferQueueService {
+
+	static final int MAX_RUNNING_JOBS = 3;
+	static final int MAX_JOBS_PER_DEVICE = 1;
+
+	private static final String QUEUE_FILE = "queue.json";
+	private static final ObjectMapper MAPPER = new ObjectMapper()
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+	@Autowired
+	private PanelTransferService panelTransferService;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private final List<Job> jobs = new ArrayList<>();
+	private final Map<Object, Integer> busyDevices = new HashMap<>();
+	private final List<QueueListener> listeners = new CopyOnWriteArrayList<>();
+	private int runningJobs;
+	private ConflictResolver conflictResolver;
+
+	/**
+	 * Queues a transfer.
+	 *
+	 * @param options   transfer options; the progress listener and cancellation
+	 *                  token are driven by the queue, a conflict resolver is kept
+	 *                  for as long as the application runs
+	 * @return the id of the new job
+	 */
+	public String submit(List<Path> sources, TransferOptions options, boolean move, Priority priority) {
+		Objects.requireNonNull(options, "options");
+		Job job = new Job(
+				UUID.randomUUID().toString(),
+				List.copyOf(sources),
+				options,
+				move,
+				priority != null ? priority : Priority.NORMAL,
+				false);
+		lock.lock();
+		try {
+			jobs.add(job);
+			saveLocked();
+			dispatchLocked();
+		} finally {
+			lock.unlock();
+		}
+		notifyListeners();
+		return job.id;
+	}
+
+	/**
+	 * Loads the jobs that were still queued, paused or running when the
+	 * application stopped and starts dispatching them.
+	 *
+	 * @param conflictResolver asked about conflicts of restored jobs that use
+	 *                         {@link ConflictResolution#ASK}
+	 */
+	public void restore(ConflictResolver conflictResolver) {
+		Path file = queueFile();
+		List<StoredJob> stored = List.of();
+		if (Files.isRegularFile(file)) {
+			try {
+				stored = MAPPER.readValue(file.toFile(), StoredQueue.class).jobs();
+			} catch (IOException ex) {
+				log.warn("Failed to read transfer queue {}: {}", file, ex.toString());
+			}
+		}
+		lock.lock();
+		try {
+			this.conflictResolver = conflictResolver;
+			for (StoredJob storedJob : stored != null ? stored : List.<StoredJob>of()) {
+				if (find(storedJob.id()) == null) {
+					Job job = storedJob.toJob(conflictResolver);
+					jobs.add(job);
+				}
+			}
+			dispatchLocked();
+		} finally {
+			lock.unlock();
+		}
+		notifyListeners();
+	}
+
+	/**
+	 * @return whether a restored job is going to continue {@code pending}, so it
+	 *         should not be offered for resuming separately
+	 */
+	public boolean claims(PendingTransfer pending) {
+		lock.lock();
+		try {
+			return jobs.stream().anyMatch(job -> job.resumeJournal && job.matches(pending));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void pause(String id) {
+		update(id, job -> {
+			if (job.state == State.QUEUED || job.state == State.RUNNING) {
+				releaseLocked(job);
+				job.state = State.PAUSED;
+			}
+		});
+	}
+
+	public void resume(String id) {
+		update(id, job -> {
+			if (job.state == State.PAUSED) {
+				job.state = State.QUEUED;
+			}
+		});
+	}
+
+	/**
+	 * Cancels a job; a running job stops at its next cancellation check.
+	 */
+	public void cancel(String id) {
+		update(id, job -> {
+			if (job.state.finished()) {
+				return;
+			}
+			job.cancelRequested = true;
+			releaseLocked(job);
+			if (job.thread == null) {
+				job.state = State.CANCELLED;
+			}
+		});
+	}
+
+	/**
+	 * Moves a job to {@code index} in the queue; among jobs of the same priority
+	 * the earlier one starts first.
+	 */
+	public void reorder(String id, int index) {
+		update(id, job -> {
+			jobs.remove(job);
+			jobs.add(Math.max(0, Math.min(index, jobs.size())), job);
+		});
+	}
+
+	public void setPriority(String id, Priority priority) {
+		update(id, job -> job.priority = priority != null ? priority : Priority.NORMAL);
+	}
+
+	/**
+	 * Changes the bytes per second a job may use, also while it runs;
+	 * {@link BandwidthLimiter#UNLIMITED} lifts the limit.
+	 */
+	public void setBandwidthLimit(String id, long bytesPerSecond) {
+		update(id, job -> job.options.bandwidthLimiter().setLimit(bytesPerSecond));
+	}
+
+	/**
+	 * Drops finished, failed and cancelled jobs from the queue.
+	 */
+	public void clearFinished() {
+		lock.lock();
+		try {
+			jobs.removeIf(job -> job.state.finished());
+		} finally {
+			lock.unlock();
+		}
+		notifyListeners();
+	}
+
+	public QueueSnapshot snapshot() {
+		lock.lock();
+		try {
+			List<TransferJob> views = new ArrayList<>(jobs.size());
+			long totalBytes = 0L;
+			long transferredBytes = 0L;
+			long bytesPerSecond = 0L;
+			boolean sized = true;
+			for (Job job : jobs) {
+				views.add(job.view());
+				if (job.state.finished()) {
+					continue;
+				}
+				TransferProgress progress = job.progress;
+				if (progress == null || !progress.scanComplete()) {
+					sized = false;
+				}
+				if (progress != null) {
+					totalBytes += progress.totalBytes();
+					transferredBytes += progress.transferredBytes();
+					if (job.state == State.RUNNING) {
+						bytesPerSecond += progress.smoothedBytesPerSecond();
+					}
+				}
+			}
+			Duration remaining = sized && bytesPerSecond > 0L
+					? Duration.ofMillis((totalBytes - transferredBytes) * 1000L / bytesPerSecond)
+					: null;
+			return new QueueSnapshot(List.copyOf(views), totalBytes, transferredBytes, bytesPerSecond, remaining);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void addListener(QueueListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(QueueListener listener) {
+		listeners.remove(listener);
+	}
+
+	private void update(String id, Consumer<Job> change) {
+		lock.lock();
+		try {
+			Job job = find(id);
+			if (job == null) {
+				return;
+			}
+			change.accept(job);
+			saveLocked();
+			dispatchLocked();
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		notifyListeners();
+	}
+
+	/**
+	 * Starts every queued job that fits the global and per-device budget, best
+	 * priority first. Jobs parked by a pause are woken instead of started again.
+	 */
+	private void dispatchLocked() {
+		List<Job> candidates = new ArrayList<>();
+		for (Job job : jobs) {
+			if (job.state == State.QUEUED) {
+				candidates.add(job);
+			}
+		}
+		candidates.sort((left, right) -> Integer.compare(left.priority.ordinal(), right.priority.ordinal()));
+		for (Job job : candidates) {
+			if (runningJobs >= MAX_RUNNING_JOBS) {
+				return;
+			}
+			Set<Object> devices = job.devices();
+			if (devices.stream().anyMatch(device -> busyDevices.getOrDefault(device, 0) >= MAX_JOBS_PER_DEVICE)) {
+				continue;
+			}
+			devices.forEach(device -> busyDevices.merge(device, 1, Integer::sum));
+			runningJobs++;
+			job.holdsSlot = true;
+			job.state = State.RUNNING;
+			if (job.thread == null) {
+				job.thread = Thread.ofVirtual().name("transfer-queue").start(() -> run(job));
+			} else {
+				changed.signalAll();
+			}
+		}
+	}
+
+	private void releaseLocked(Job job) {
+		if (!job.holdsSlot) {
+			return;
+		}
+		job.holdsSlot = false;
+		runningJobs--;
+		job.devices().forEach(device -> busyDevices.computeIfPresent(device, (key, count) -> count > 1 ? count - 1 : null));
+	}
+
+	private void run(Job job) {
+		TransferOptions options = job.options.withCallbacks(
+				job.options.conflictResolver() != null ? job.options.conflictResolver() : conflictResolver,
+				progress -> progress(job, progress),
+				() -> awaitRunning(job));
+		State outcome = State.COMPLETED;
+		String error = null;
+		try {
+			PendingTransfer pending = job.resumeJournal ? findPending(job) : null;
+			if (pending != null) {
+				panelTransferService.resume(
+						pending,
+						options.conflictResolver(),
+						options.progressListener(),
+						options.cancellationToken(),
+						options.bandwidthLimiter());
+			} else {
+				List<NuclrResourcePath> sources = job.sources.stream().map(NuclrResourcePath::new).toList();
+				if (job.move) {
+					panelTransferService.move(sources, options);
+				} else {
+					panelTransferService.copy(sources, options);
+				}
+			}
+		} catch (IOException | RuntimeException ex) {
+			outcome = job.cancelRequested ? State.CANCELLED : State.FAILED;
+			error = ex.getMessage();
+		}
+		lock.lock();
+		try {
+			releaseLocked(job);
+			job.state = outcome;
+			job.error = error;
+			saveLocked();
+			dispatchLocked();
+		} finally {
+			lock.unlock();
+		}
+		notifyListeners();
+	}
+
+	/**
+	 * Cancellation check of a job's transfer: blocks while the job is paused or
+	 * waiting for its slot back.
+	 */
+	private boolean awaitRunning(Job job) {
+		lock.lock();
+		try {
+			while (!job.cancelRequested && job.state != State.RUNNING) {
+				changed.awaitUninterruptibly();
+			}
+			return job.cancelRequested;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void progress(Job job, TransferProgress progress) {
+		job.progress = progress;
+		if (job.options.progressListener() != null) {
+			job.options.progressListener().onProgress(progress);
+		}
+		notifyListeners();
+	}
+
+	private PendingTransfer findPending(Job job) {
+		return panelTransferService.pendingTransfers().stream()
+				.filter(job::matches)
+				.findFirst()
+				.orElse(null);
+	}
+
+	private Job find(String id) {
+		for (Job job : jobs) {
+			if (job.id.equals(id)) {
+				return job;
+			}
+		}
+		return null;
+	}
+
+	private void notifyListeners() {
+		if (listeners.isEmpty()) {
+			return;
+		}
+		QueueSnapshot snapshot = snapshot();
+		for (QueueListener listener : listeners) {
+			listener.onChange(snapshot);
+		}
+	}
+
+	private void saveLocked() {
+		List<StoredJob> stored = jobs.stream()
+				.filter(job -> !job.state.finished())
+				.map(StoredJob::of)
+				.toList();
+		Path file = queueFile();
+		Path temp = file.resolveSibling(QUEUE_FILE + ".tmp");
+		try {
+			Files.createDirectories(file.getParent());
+			MAPPER.writeValue(temp.toFile(), new StoredQueue(stored));
+			try {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException ex) {
+			log.warn("Failed to save transfer queue {}: {}", file, ex.toString());
+		}
+	}
+
+	private static Path queueFile() {
+		return LocalDataLocation.resolve(TransferJournal.DIRECTORY, QUEUE_FILE);
+	}
+
+	public enum Priority {
+		HIGH,
+		NORMAL,
+		LOW
+	}
+
+	public enum State {
+		QUEUED,
+		RUNNING,
+		PAUSED,
+		COMPLETED,
+		FAILED,
+		CANCELLED;
+
+		public boolean finished() {
+			return this == COMPLETED || this == FAILED || this == CANCELLED;
+		}
+	}
+
+	@FunctionalInterface
+	public interface QueueListener {
+		void onChange(QueueSnapshot snapshot);
+	}
+
+	/**
+	 * One queued job as seen by the user; {@code progress} is {@code null} until
+	 * the job has started.
+	 */
+	public record TransferJob(
+			String id,
+			boolean move,
+			List<Path> sources,
+			List<Path> destinationDirectories,
+			Priority priority,
+			State state,
+			TransferProgress progress,
+			String error) {
+	}
+
+	/**
+	 * All jobs in queue order plus the bytes of the unfinished ones added up.
+	 * {@code remaining} is {@code null} while a job has not been sized yet.
+	 */
+	public record QueueSnapshot(
+			List<TransferJob> jobs,
+			long totalBytes,
+			long transferredBytes,
+			long bytesPerSecond,
+			Duration remaining) {
+	}
+
+	private static final class Job {
+		private final String id;
+		private final List<Path> sources;
+		private final TransferOptions options;
+		private final boolean move;
+		private final boolean resumeJournal;
+		private Priority priority;
+		private volatile State state = State.QUEUED;
+		private volatile boolean cancelRequested;
+		private volatile TransferProgress progress;
+		private String error;
+		private Thread thread;
+		private boolean holdsSlot;
+		private Set<Object> devices;
+
+		private Job(String id, List<Path> sources, TransferOptions options, boolean move, Priority priority, boolean resumeJournal) {
+			this.id = id;
+			this.sources = sources;
+			this.options = options.bandwidthLimiter() != null ? options : options.withBandwidthLimiter(new BandwidthLimiter());
+			this.move = move;
+			this.priority = priority;
+			this.resumeJournal = resumeJournal;
+		}
+
+		private Set<Object> devices() {
+			if (devices == null) {
+				Set<Object> keys = new HashSet<>();
+				for (Path source : sources) {
+					Path parent = source.toAbsolutePath().getParent();
+					keys.add(TransferScheduler.deviceOf(parent != null ? parent : source));
+				}
+				for (Path destination : options.destinationDirectories()) {
+					keys.add(TransferScheduler.deviceOf(destination));
+				}
+				devices = keys;
+			}
+			return devices;
+		}
+
+		private boolean matches(PendingTransfer pending) {
+			return pending.move() == move
+					&& pending.sources().equals(sources)
+					&& pending.destinationDirectories().equals(options.destinationDirectories());
+		}
+
+		private TransferJob view() {
+			return new TransferJob(id, move, sources, options.destinationDirectories(), priority, state, progress, error);
+		}
+	}
+
+	private record StoredQueue(List<StoredJob> jobs) {
+	}
+
+	private record StoredJob(
+			String id,
+			boolean move,
+			List<String> sources,
+			List<String> destinations,
+			Priority priority,
+			boolean paused,
+			boolean running,
+			ConflictResolution conflictResolution,
+			AccessPolicy accessPolicy,
+			boolean preserveTimestamps,
+			boolean followSymbolicLinks,
+			boolean compareContents,
+			boolean deltaCopy,
+			boolean verify,
+			boolean linkDuplicates,
+			boolean diskOrder,
+			String filterExpression,
+			long bandwidthLimit) {
+
+		private static StoredJob of(Job job) {
+			TransferOptions options = job.options;
+			return new StoredJob(
+					job.id,
+					job.move,
+					job.sources.stream().map(Path::toString).toList(),
+					options.destinationDirectories().stream().map(Path::toString).toList(),
+					job.priority,
+					job.state == State.PAUSED,
+					job.thread != null,
+					options.conflictResolution(),
+					options.accessPolicy(),
+					options.preserveTimestamps(),
+					options.followSymbolicLinks(),
+					options.compareContents(),
+					options.deltaCopy(),
+					options.verify(),
+					options.linkDuplicates(),
+					options.diskOrder(),
+					options.filterExpression(),
+					options.bandwidthLimiter().getLimit());
+		}
+
+		private Job toJob(ConflictResolver conflictResolver) {
+			List<Path> destinationDirectories = destinations.stream().map(Path::of).toList();
+			TransferOptions options = new TransferOptions(
+					null,
+					destinationDirectories,
+					conflictResolution,
+					conflictResolver,
+					null,
+					null,
+					new BandwidthLimiter(bandwidthLimit),
+					accessPolicy,
+					preserveTimestamps,
+					followSymbolicLinks,
+					compareContents,
+					deltaCopy,
+					verify,
+					linkDuplicates,
+					diskOrder,
+					filterExpression,
+					null);
+			Job job = new Job(id, sources.stream().map(Path::of).toList(), options, move, priority != null ? priority : Priority.NORMAL, running);
+			if (paused) {
+				job.state = State.PAUSED;
+			}
+			return job;
+		}
+	}
+}
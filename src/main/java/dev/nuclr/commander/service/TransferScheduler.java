@@ -0,0 +1,267 @@
+package dev.nuclr.commander.service;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs file copies of one transfer concurrently on virtual threads.
+ *
+ * <p>
+ * Every task holds a permit of the device its source lives on and of every
+ * device one of its targets lives on, so a single disk never sees more than
+ * {@link #PER_DEVICE_CONCURRENCY} copies at once while copies between
+ * independent disks proceed in parallel. Permits are taken on the submitting
+ * thread, which therefore blocks once a device is saturated and keeps the
+ * number of in-flight tasks bounded.
+ *
+ * <p>
+ * In disk order, copies submitted with {@link #submitInDiskOrder} are held back
+ * until {@link #DISK_ORDER_WINDOW} of them have gathered and then started in
+ * inode order instead of walk order. File systems tend to place the data of
+ * files near their inodes, so a rotational source reads the window in one
+ * sweep instead of seeking back and forth for every file; solid state media
+ * gain nothing from it and only see copies start a little later.
+ *
+ * <p>
+ * The first failure wins: it is rethrown from the next {@link #submit} or
+ * {@link #await()}, and tasks that have not started yet are dropped.
+ */
+final class TransferScheduler implements AutoCloseable {
+
+	static final int PER_DEVICE_CONCURRENCY = 4;
+
+	// Copies sorted at once in disk order; they hold no data until they start.
+	static final int DISK_ORDER_WINDOW = 512;
+
+	private static final int DEVICE_CACHE_SIZE = 1024;
+
+	private final boolean diskOrder;
+	// Copies held back for sorting; submitting thread only.
+	private final List<Ordered> window = new ArrayList<>();
+
+	private final Map<Object, Semaphore> devices = new ConcurrentHashMap<>();
+	private final Map<Path, Object> deviceKeys = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Path, Object> eldest) {
+			return size() > DEVICE_CACHE_SIZE;
+		}
+	};
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition idle = lock.newCondition();
+	private int pending;
+	private IOException failure;
+
+	TransferScheduler() {
+		this(false);
+	}
+
+	/**
+	 * @param diskOrder whether copies submitted with
+	 *                  {@link #submitInDiskOrder} start in inode order
+	 */
+	TransferScheduler(boolean diskOrder) {
+		this.diskOrder = diskOrder;
+	}
+
+	/**
+	 * Schedules {@code task}, blocking while the source or target device is
+	 * saturated. Must be called from a single submitting thread.
+	 */
+	void submit(Path sourcePath, List<Path> targetPaths, Task task) throws IOException {
+		rethrowFailure();
+		List<Semaphore> permits = acquire(sourcePath, targetPaths);
+		lock.lock();
+		try {
+			pending++;
+		} finally {
+			lock.unlock();
+		}
+		Thread.ofVirtual().name("transfer-copy").start(() -> run(task, permits));
+	}
+
+	/**
+	 * Schedules a copy of {@code sourcePath}, in disk order together with the
+	 * copies around it, otherwise like {@link #submit}. Must be called from the
+	 * submitting thread.
+	 *
+	 * @param inode the inode number of the source, or -1 if unknown
+	 */
+	void submitInDiskOrder(Path sourcePath, long inode, List<Path> targetPaths, Task task) throws IOException {
+		if (!diskOrder || inode < 0L) {
+			submit(sourcePath, targetPaths, task);
+			return;
+		}
+		rethrowFailure();
+		window.add(new Ordered(sourcePath, inode, targetPaths, task));
+		if (window.size() >= DISK_ORDER_WINDOW) {
+			flush();
+		}
+	}
+
+	/**
+	 * Waits until every submitted task has finished, starting the copies that
+	 * are still held back for sorting first.
+	 *
+	 * @throws IOException the first failure reported by any task
+	 */
+	void await() throws IOException {
+		flush();
+		awaitIdle();
+		rethrowFailure();
+	}
+
+	@Override
+	public void close() {
+		// Copies never started when the transfer ends early.
+		window.clear();
+		awaitIdle();
+	}
+
+	private void flush() throws IOException {
+		if (window.isEmpty()) {
+			return;
+		}
+		List<Ordered> copies = new ArrayList<>(window);
+		window.clear();
+		copies.sort(Comparator.comparingLong(Ordered::inode));
+		for (Ordered copy : copies) {
+			submit(copy.sourcePath(), copy.targetPaths(), copy.task());
+		}
+	}
+
+	private void run(Task task, List<Semaphore> permits) {
+		try {
+			if (!failed()) {
+				task.run();
+			}
+		} catch (IOException ex) {
+			fail(ex);
+		} catch (RuntimeException ex) {
+			fail(new IOException(ex.getMessage(), ex));
+		} finally {
+			permits.forEach(Semaphore::release);
+			lock.lock();
+			try {
+				pending--;
+				idle.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private List<Semaphore> acquire(Path sourcePath, List<Path> targetPaths) throws IOException {
+		Set<Object> devices = new LinkedHashSet<>();
+		devices.add(deviceKey(sourcePath.getParent()));
+		for (Path targetPath : targetPaths) {
+			devices.add(deviceKey(targetPath.getParent()));
+		}
+		List<Semaphore> permits = new ArrayList<>(devices.size());
+		try {
+			for (Object device : devices) {
+				permits.add(acquire(device));
+			}
+			return permits;
+		} catch (InterruptedException ex) {
+			permits.forEach(Semaphore::release);
+			Thread.currentThread().interrupt();
+			throw new IOException("Transfer interrupted", ex);
+		}
+	}
+
+	private Semaphore acquire(Object device) throws InterruptedException {
+		Semaphore semaphore = devices.computeIfAbsent(device, key -> new Semaphore(PER_DEVICE_CONCURRENCY));
+		semaphore.acquire();
+		return semaphore;
+	}
+
+	private Object deviceKey(Path directory) {
+		if (directory == null) {
+			return FileSystems.getDefault();
+		}
+		return deviceKeys.computeIfAbsent(directory, TransferScheduler::deviceOf);
+	}
+
+	/**
+	 * Identifies the file store behind {@code directory}. On Unix the device
+	 * number is a single stat, whereas {@link Files#getFileStore} re-reads the
+	 * mount table on every call. Mounted archives count as one device.
+	 */
+	static Object deviceOf(Path directory) {
+		try {
+			if (directory.getFileSystem() != FileSystems.getDefault()) {
+				return directory.getFileSystem();
+			}
+			if (directory.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+				return List.of("unix", Files.getAttribute(directory, "unix:dev"));
+			}
+			return Files.getFileStore(directory);
+		} catch (IOException | RuntimeException ex) {
+			return directory.getFileSystem();
+		}
+	}
+
+	private boolean failed() {
+		lock.lock();
+		try {
+			return failure != null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void fail(IOException ex) {
+		lock.lock();
+		try {
+			if (failure == null) {
+				failure = ex;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void rethrowFailure() throws IOException {
+		lock.lock();
+		try {
+			if (failure != null) {
+				throw failure;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void awaitIdle() {
+		lock.lock();
+		try {
+			while (pending > 0) {
+				idle.awaitUninterruptibly();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@FunctionalInterface
+	interface Task {
+		void run() throws IOException;
+	}
+
+	private record Ordered(Path sourcePath, long inode, List<Path> targetPaths, Task task) {
+	}
+}
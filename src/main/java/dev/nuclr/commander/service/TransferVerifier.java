@@ -0,0 +1,154 @@
+package dev.nuclr.commander.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+import com.sun.nio.file.ExtendedOpenOption;
+
+/**
+ * Checks copied files against the CRC32C that was computed from the source
+ * bytes while they were being copied, and lists every verified file in a
+ * manifest under {@code ~/.nuclr/manifests}.
+ *
+ * <p>
+ * The copy loops feed the bytes they read into the checksum, so the source is
+ * never read a second time. Targets are read back with {@code O_DIRECT} where
+ * the file system allows it, so the check sees what reached the device rather
+ * than the page cache the copy has just filled; other file systems are read
+ * normally.
+ */
+final class TransferVerifier implements AutoCloseable {
+
+	static final String DIRECTORY = "manifests";
+	static final long NO_CHECKSUM = -1L;
+
+	private static final int READ_BLOCK_SIZE = 1024 * 1024;
+	private static final int DEFAULT_ALIGNMENT = 4096;
+	private static final DateTimeFormatter MANIFEST_NAME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+	private final boolean enabled;
+	private BufferedWriter manifest;
+
+	private TransferVerifier(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	static TransferVerifier create(PanelTransferService.TransferOptions options) {
+		return new TransferVerifier(options != null && options.verify());
+	}
+
+	/**
+	 * Feeds {@code length} bytes of {@code input} starting at {@code position}
+	 * into {@code checksum}; used for the part of a resumed copy that was written
+	 * before the interruption.
+	 */
+	static void update(Checksum checksum, FileChannel input, long position, long length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(READ_BLOCK_SIZE, Math.max(1L, length)));
+		long end = position + length;
+		while (position < end) {
+			buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+			int read = input.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("File changed while it was being copied");
+			}
+			buffer.flip();
+			checksum.update(buffer);
+			position += read;
+		}
+	}
+
+	/**
+	 * Reads every target back and compares it with the checksum of the source.
+	 *
+	 * @throws IOException if a target differs from what was read from the source
+	 */
+	void verify(Path sourcePath, List<Path> targetPaths, long expected) throws IOException {
+		if (!enabled || expected == NO_CHECKSUM) {
+			return;
+		}
+		for (Path targetPath : targetPaths) {
+			long actual = checksum(targetPath);
+			if (actual != expected) {
+				throw new IOException("Verification failed for " + targetPath
+						+ ": expected " + hex(expected) + " but read " + hex(actual) + " (source " + sourcePath + ")");
+			}
+			record(targetPath, actual);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (manifest != null) {
+			manifest.close();
+			manifest = null;
+		}
+	}
+
+	private long checksum(Path targetPath) throws IOException {
+		Checksum checksum = new CRC32C();
+		if (targetPath.getFileSystem() == FileSystems.getDefault()) {
+			try {
+				int alignment = alignment(targetPath);
+				try (FileChannel channel = FileChannel.open(targetPath, StandardOpenOption.READ, ExtendedOpenOption.DIRECT)) {
+					read(channel, ByteBuffer.allocateDirect(READ_BLOCK_SIZE + alignment).alignedSlice(alignment), checksum);
+					return checksum.getValue();
+				}
+			} catch (UnsupportedOperationException | IOException ex) {
+				// Direct reads are refused by some file systems (tmpfs, network shares); use the cache instead.
+				checksum.reset();
+			}
+		}
+		try (FileChannel channel = FileChannel.open(targetPath, StandardOpenOption.READ)) {
+			read(channel, ByteBuffer.allocateDirect(READ_BLOCK_SIZE), checksum);
+		}
+		return checksum.getValue();
+	}
+
+	private static void read(FileChannel channel, ByteBuffer buffer, Checksum checksum) throws IOException {
+		while (true) {
+			buffer.clear();
+			int read = channel.read(buffer);
+			if (read < 0) {
+				return;
+			}
+			buffer.flip();
+			checksum.update(buffer);
+		}
+	}
+
+	private static int alignment(Path path) {
+		try {
+			long blockSize = Files.getFileStore(path).getBlockSize();
+			return blockSize > 0L && blockSize <= READ_BLOCK_SIZE ? (int) blockSize : DEFAULT_ALIGNMENT;
+		} catch (IOException | UnsupportedOperationException ex) {
+			return DEFAULT_ALIGNMENT;
+		}
+	}
+
+	private synchronized void record(Path targetPath, long checksum) throws IOException {
+		if (manifest == null) {
+			Path directory = LocalDataLocation.resolve(DIRECTORY);
+			Files.createDirectories(directory);
+			Path manifestPath = directory.resolve("transfer-" + LocalDateTime.now().format(MANIFEST_NAME) + ".crc32c");
+			manifest = Files.newBufferedWriter(manifestPath, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		}
+		manifest.write(hex(checksum) + "  " + targetPath.toAbsolutePath());
+		manifest.newLine();
+	}
+
+	private static String hex(long checksum) {
+		return String.format("%08x", checksum);
+	}
+}
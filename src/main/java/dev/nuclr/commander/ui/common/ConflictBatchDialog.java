@@ -0,0 +1,259 @@
+package dev.nuclr.commander.ui.common;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.nio.file.Path;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import javax.swing.BorderFactory;
+import javax.swing.DefaultCellEditor;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.ListSelectionModel;
+import javax.swing.table.AbstractTableModel;
+
+import dev.nuclr.commander.service.PanelTransferService.Conflict;
+import dev.nuclr.commander.service.PanelTransferService.ConflictResolution;
+
+/**
+ * Lists every conflict found before a transfer starts and lets the user settle
+ * them at once, row by row or with a rule that applies one action to all
+ * conflicts matching the selected one.
+ */
+public final class ConflictBatchDialog {
+
+	private ConflictBatchDialog() {
+	}
+
+	/**
+	 * Must be called on the event dispatch thread.
+	 *
+	 * @return one resolution per conflict, or {@code null} when the dialog was
+	 *         cancelled
+	 */
+	public static List<ConflictResolution> show(Component parent, List<Conflict> conflicts) {
+		ConflictTableModel model = new ConflictTableModel(conflicts);
+		JTable table = new JTable(model);
+		table.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+		table.setAutoCreateRowSorter(false);
+		table.getColumnModel().getColumn(0).setCellEditor(new DefaultCellEditor(new JComboBox<>(Action.values())));
+		table.getColumnModel().getColumn(0).setPreferredWidth(90);
+		table.getColumnModel().getColumn(1).setPreferredWidth(360);
+		if (!conflicts.isEmpty()) {
+			table.setRowSelectionInterval(0, 0);
+		}
+		JScrollPane scrollPane = new JScrollPane(table);
+		scrollPane.setPreferredSize(new Dimension(820, Math.min(360, 60 + conflicts.size() * table.getRowHeight())));
+
+		JComboBox<Action> ruleAction = new JComboBox<>(Action.values());
+		JComboBox<Scope> ruleScope = new JComboBox<>(Scope.values());
+		JButton applyButton = new JButton("Apply");
+		applyButton.addActionListener(e -> {
+			int row = table.getSelectedRow();
+			Conflict selected = row >= 0 ? conflicts.get(row) : null;
+			model.apply((Action) ruleAction.getSelectedItem(), (Scope) ruleScope.getSelectedItem(), selected);
+		});
+
+		JPanel rulePanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 6, 0));
+		rulePanel.add(new JLabel("Set"));
+		rulePanel.add(ruleAction);
+		rulePanel.add(new JLabel("for"));
+		rulePanel.add(ruleScope);
+		rulePanel.add(applyButton);
+
+		JPanel content = new JPanel(new BorderLayout(0, 8));
+		content.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+		content.add(new JLabel(conflicts.size() == 1
+				? "1 item already exists in the destination."
+				: conflicts.size() + " items already exist in the destination."), BorderLayout.NORTH);
+		content.add(scrollPane, BorderLayout.CENTER);
+		content.add(rulePanel, BorderLayout.SOUTH);
+
+		Object[] options = {"Continue", "Skip All"};
+		JOptionPane optionPane = new JOptionPane(
+				content,
+				JOptionPane.WARNING_MESSAGE,
+				JOptionPane.OK_CANCEL_OPTION,
+				null,
+				options,
+				options[0]);
+		JDialog dialog = optionPane.createDialog(parent, "Transfer Conflicts");
+		dialog.setModal(true);
+		dialog.setResizable(true);
+		dialog.setLocationRelativeTo(parent);
+		dialog.setVisible(true);
+		dialog.dispose();
+
+		if (table.isEditing()) {
+			table.getCellEditor().stopCellEditing();
+		}
+		if (!options[0].equals(optionPane.getValue())) {
+			return null;
+		}
+		return Arrays.stream(model.actions).map(action -> action.resolution).toList();
+	}
+
+	private enum Action {
+		OVERWRITE("Overwrite", ConflictResolution.OVERWRITE),
+		SKIP("Skip", ConflictResolution.SKIP),
+		RENAME("Rename", ConflictResolution.RENAME);
+
+		private final String label;
+		private final ConflictResolution resolution;
+
+		Action(String label, ConflictResolution resolution) {
+			this.label = label;
+			this.resolution = resolution;
+		}
+
+		@Override
+		public String toString() {
+			return label;
+		}
+	}
+
+	/**
+	 * Which conflicts a rule applies to, judged against the selected one where
+	 * needed.
+	 */
+	private enum Scope {
+		ALL("all conflicts"),
+		SAME_EXTENSION("files with the selected extension"),
+		SOURCE_NEWER("files where the source is newer"),
+		SOURCE_OLDER("files where the source is older"),
+		SAME_SIZE("files of equal size"),
+		DIRECTORIES("folders");
+
+		private final String label;
+
+		Scope(String label) {
+			this.label = label;
+		}
+
+		private boolean matches(Conflict conflict, Conflict selected) {
+			return switch (this) {
+				case ALL -> true;
+				case SAME_EXTENSION -> selected != null && !conflict.directory()
+						&& extension(conflict.sourcePath()).equals(extension(selected.sourcePath()));
+				case SOURCE_NEWER -> !conflict.directory() && conflict.sourceLastModified() > conflict.targetLastModified();
+				case SOURCE_OLDER -> !conflict.directory() && conflict.sourceLastModified() < conflict.targetLastModified();
+				case SAME_SIZE -> !conflict.directory() && conflict.sourceSize() == conflict.targetSize();
+				case DIRECTORIES -> conflict.directory();
+			};
+		}
+
+		@Override
+		public String toString() {
+			return label;
+		}
+	}
+
+	private static final class ConflictTableModel extends AbstractTableModel {
+
+		private static final String[] COLUMNS = {"Action", "Target", "Source size", "Target size", "Source modified", "Target modified"};
+
+		private final List<Conflict> conflicts;
+		private final Action[] actions;
+		private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ROOT);
+
+		private ConflictTableModel(List<Conflict> conflicts) {
+			this.conflicts = new ArrayList<>(conflicts);
+			this.actions = new Action[conflicts.size()];
+			Arrays.fill(actions, Action.SKIP);
+		}
+
+		private void apply(Action action, Scope scope, Conflict selected) {
+			for (int row = 0; row < conflicts.size(); row++) {
+				if (scope.matches(conflicts.get(row), selected)) {
+					actions[row] = action;
+				}
+			}
+			fireTableDataChanged();
+		}
+
+		@Override
+		public int getRowCount() {
+			return conflicts.size();
+		}
+
+		@Override
+		public int getColumnCount() {
+			return COLUMNS.length;
+		}
+
+		@Override
+		public String getColumnName(int column) {
+			return COLUMNS[column];
+		}
+
+		@Override
+		public Class<?> getColumnClass(int column) {
+			return column == 0 ? Action.class : String.class;
+		}
+
+		@Override
+		public boolean isCellEditable(int row, int column) {
+			return column == 0;
+		}
+
+		@Override
+		public Object getValueAt(int row, int column) {
+			Conflict conflict = conflicts.get(row);
+			return switch (column) {
+				case 0 -> actions[row];
+				case 1 -> conflict.targetPath().toString();
+				case 2 -> conflict.directory() ? "Folder" : formatBytes(conflict.sourceSize());
+				case 3 -> conflict.directory() ? "Folder" : formatBytes(conflict.targetSize());
+				case 4 -> formatTime(conflict.sourceLastModified());
+				default -> formatTime(conflict.targetLastModified());
+			};
+		}
+
+		private String formatTime(long millis) {
+			return millis > 0L ? dateFormat.format(new Date(millis)) : "";
+		}
+
+		@Override
+		public void setValueAt(Object value, int row, int column) {
+			if (column == 0 && value instanceof Action action) {
+				actions[row] = action;
+				fireTableCellUpdated(row, column);
+			}
+		}
+	}
+
+	private static String extension(Path path) {
+		Path fileName = path.getFileName();
+		String name = fileName != null ? fileName.toString() : "";
+		int dot = name.lastIndexOf('.');
+		return dot > 0 ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+	}
+
+	private static String formatBytes(long bytes) {
+		if (bytes <= 0L) {
+			return "0 B";
+		}
+		String[] units = {"B", "KB", "MB", "GB", "TB"};
+		double value = bytes;
+		int unitIndex = 0;
+		while (value >= 1024 && unitIndex < units.length - 1) {
+			value /= 1024.0;
+			unitIndex++;
+		}
+		return new DecimalFormat(value >= 10 || unitIndex == 0 ? "0" : "0.0").format(value) + " " + units[unitIndex];
+	}
+}
@@ -63,10 +63,22 @@ public final class TransferConfirmationDialog {
 		JCheckBox timestampsCheckBox = new JCheckBox("Preserve all timestamps");
 		JCheckBox linksCheckBox = new JCheckBox("Copy contents of symbolic links");
 		JCheckBox destinationsCheckBox = new JCheckBox("Process multiple destinations");
+		JCheckBox compareContentsCheckBox = new JCheckBox("Compare contents of files with equal size");
+		JCheckBox deltaCopyCheckBox = new JCheckBox("Rewrite only changed blocks of large files");
+		JCheckBox verifyCheckBox = new JCheckBox("Verify copied files");
+		JCheckBox linkDuplicatesCheckBox = new JCheckBox("Hard-link identical files");
+		JCheckBox diskOrderCheckBox = new JCheckBox("Read files in on-disk order (hard disks)");
 		JCheckBox filterCheckBox = new JCheckBox("Use filter");
 		timestampsCheckBox.setSelected(model.preserveTimestamps());
 		linksCheckBox.setSelected(model.followSymbolicLinks());
 		destinationsCheckBox.setSelected(model.multipleDestinations());
+		compareContentsCheckBox.setSelected(model.compareContents());
+		deltaCopyCheckBox.setSelected(model.deltaCopy());
+		verifyCheckBox.setSelected(model.verify());
+		linkDuplicatesCheckBox.setSelected(model.linkDuplicates());
+		diskOrderCheckBox.setSelected(model.diskOrder());
+		compareContentsCheckBox.setEnabled(conflictChoice.getSelectedItem() == ConflictChoice.SYNC);
+		conflictChoice.addActionListener(e -> compareContentsCheckBox.setEnabled(conflictChoice.getSelectedItem() == ConflictChoice.SYNC));
 		filterCheckBox.setSelected(model.filterExpression() != null && !model.filterExpression().isBlank());
 		JButton filterButton = new JButton("Filter");
 		JLabel filterSummaryLabel = new JLabel(filterSummary(model.filterExpression()));
@@ -109,12 +121,17 @@ public final class TransferConfirmationDialog {
 		content.add(buildDestinationPanel(model.destinationLabel(), destinationField), BorderLayout.NORTH);
 		content.add(buildOptionsPanel(
 				conflictChoice,
+				compareContentsCheckBox,
 				accessDefault,
 				accessCopy,
 				accessInherit,
 				timestampsCheckBox,
 				linksCheckBox,
 				destinationsCheckBox,
+				deltaCopyCheckBox,
+				verifyCheckBox,
+				linkDuplicatesCheckBox,
+				diskOrderCheckBox,
 				filterCheckBox,
 				filterButton,
 				filterSummaryLabel), BorderLayout.CENTER);
@@ -123,9 +140,14 @@ public final class TransferConfirmationDialog {
 				content,
 				destinationField,
 				conflictChoice,
+				compareContentsCheckBox,
 				timestampsCheckBox,
 				linksCheckBox,
 				destinationsCheckBox,
+				deltaCopyCheckBox,
+				verifyCheckBox,
+				linkDuplicatesCheckBox,
+				diskOrderCheckBox,
 				filterCheckBox,
 				accessDefault,
 				accessCopy,
@@ -175,6 +197,11 @@ public final class TransferConfirmationDialog {
 						timestampsCheckBox.isSelected(),
 						linksCheckBox.isSelected(),
 						destinationsCheckBox.isSelected(),
+						compareContentsCheckBox.isEnabled() && compareContentsCheckBox.isSelected(),
+						deltaCopyCheckBox.isSelected(),
+						verifyCheckBox.isSelected(),
+						linkDuplicatesCheckBox.isSelected(),
+						diskOrderCheckBox.isSelected(),
 						filterCheckBox.isSelected() ? blankToNull(filterExpressionHolder[0]) : null);
 			} catch (InvalidPathException ex) {
 				String message = ex.getInput() == null || ex.getInput().isBlank() ? "Destination path cannot be blank." : "Invalid destination path:\n" + ex.getInput();
@@ -209,12 +236,17 @@ public final class TransferConfirmationDialog {
 
 	private static JPanel buildOptionsPanel(
 			JComboBox<ConflictChoice> conflictChoice,
+			JCheckBox compareContentsCheckBox,
 			JRadioButton accessDefault,
 			JRadioButton accessCopy,
 			JRadioButton accessInherit,
 			JCheckBox timestampsCheckBox,
 			JCheckBox linksCheckBox,
 			JCheckBox destinationsCheckBox,
+			JCheckBox deltaCopyCheckBox,
+			JCheckBox verifyCheckBox,
+			JCheckBox linkDuplicatesCheckBox,
+			JCheckBox diskOrderCheckBox,
 			JCheckBox filterCheckBox,
 			JButton filterButton,
 			JLabel filterSummaryLabel) {
@@ -240,11 +272,16 @@ public final class TransferConfirmationDialog {
 		conflictPanel.add(new JLabel("Already existing files:"), BorderLayout.WEST);
 		conflictPanel.add(conflictChoice, BorderLayout.CENTER);
 		panel.add(conflictPanel);
+		panel.add(compareContentsCheckBox);
 		panel.add(Box.createVerticalStrut(8));
 
 		panel.add(timestampsCheckBox);
 		panel.add(linksCheckBox);
 		panel.add(destinationsCheckBox);
+		panel.add(deltaCopyCheckBox);
+		panel.add(verifyCheckBox);
+		panel.add(linkDuplicatesCheckBox);
+		panel.add(diskOrderCheckBox);
 		panel.add(Box.createVerticalStrut(8));
 
 		JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
@@ -309,6 +346,11 @@ public final class TransferConfirmationDialog {
 			boolean preserveTimestamps,
 			boolean followSymbolicLinks,
 			boolean multipleDestinations,
+			boolean compareContents,
+			boolean deltaCopy,
+			boolean verify,
+			boolean linkDuplicates,
+			boolean diskOrder,
 			String filterExpression) {
 	}
 
@@ -319,6 +361,11 @@ public final class TransferConfirmationDialog {
 			boolean preserveTimestamps,
 			boolean followSymbolicLinks,
 			boolean multipleDestinations,
+			boolean compareContents,
+			boolean deltaCopy,
+			boolean verify,
+			boolean linkDuplicates,
+			boolean diskOrder,
 			String filterExpression) {
 	}
 
@@ -326,7 +373,8 @@ public final class TransferConfirmationDialog {
 		ASK("Ask", PanelTransferService.ConflictResolution.ASK),
 		OVERWRITE("Overwrite", PanelTransferService.ConflictResolution.OVERWRITE),
 		SKIP("Skip", PanelTransferService.ConflictResolution.SKIP),
-		RENAME("Rename", PanelTransferService.ConflictResolution.RENAME);
+		RENAME("Rename", PanelTransferService.ConflictResolution.RENAME),
+		SYNC("Only new or changed", PanelTransferService.ConflictResolution.SYNC);
 
 		private final String label;
 		private final PanelTransferService.ConflictResolution resolution;
@@ -358,9 +406,14 @@ public final class TransferConfirmationDialog {
 			JPanel content,
 			JTextField destinationField,
 			JComboBox<?> conflictChoice,
+			JCheckBox compareContentsCheckBox,
 			JCheckBox timestampsCheckBox,
 			JCheckBox linksCheckBox,
 			JCheckBox destinationsCheckBox,
+			JCheckBox deltaCopyCheckBox,
+			JCheckBox verifyCheckBox,
+			JCheckBox linkDuplicatesCheckBox,
+			JCheckBox diskOrderCheckBox,
 			JCheckBox filterCheckBox,
 			JRadioButton accessDefault,
 			JRadioButton accessCopy,
@@ -384,12 +437,22 @@ public final class TransferConfirmationDialog {
 		conflictChoice.setBackground(fieldBackground);
 		conflictChoice.setForeground(fieldForeground);
 
+		compareContentsCheckBox.setBackground(dialogBackground);
+		compareContentsCheckBox.setForeground(foreground);
 		timestampsCheckBox.setBackground(dialogBackground);
 		timestampsCheckBox.setForeground(foreground);
 		linksCheckBox.setBackground(dialogBackground);
 		linksCheckBox.setForeground(foreground);
 		destinationsCheckBox.setBackground(dialogBackground);
 		destinationsCheckBox.setForeground(foreground);
+		deltaCopyCheckBox.setBackground(dialogBackground);
+		deltaCopyCheckBox.setForeground(foreground);
+		verifyCheckBox.setBackground(dialogBackground);
+		verifyCheckBox.setForeground(foreground);
+		linkDuplicatesCheckBox.setBackground(dialogBackground);
+		diskOrderCheckBox.setBackground(dialogBackground);
+		linkDuplicatesCheckBox.setForeground(foreground);
+		diskOrderCheckBox.setForeground(foreground);
 		filterCheckBox.setBackground(dialogBackground);
 		filterCheckBox.setForeground(foreground);
 
@@ -5,11 +5,14 @@ import java.awt.Component;
 import java.awt.FlowLayout;
 import java.nio.file.Path;
 import java.text.DecimalFormat;
+import java.time.Duration;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
@@ -18,18 +21,25 @@ import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
 import javax.swing.WindowConstants;
 
+import dev.nuclr.commander.service.BandwidthLimiter;
 import dev.nuclr.commander.service.PanelTransferService.TransferProgress;
 
 public final class TransferProgressDialog {
 
+	private static final long MB = 1024L * 1024L;
+	private static final long[] SPEED_LIMITS = {BandwidthLimiter.UNLIMITED, MB, 5 * MB, 10 * MB, 25 * MB, 50 * MB, 100 * MB};
+
 	private final JDialog dialog;
 	private final JLabel sourceLabel = new JLabel(" ");
 	private final JLabel targetLabel = new JLabel(" ");
 	private final JLabel filesLabel = new JLabel("Files: 0 / 0");
 	private final JLabel bytesLabel = new JLabel("Bytes: 0 B / 0 B");
+	private final JLabel rateLabel = new JLabel(" ");
 	private final JProgressBar fileProgressBar = new JProgressBar();
 	private final JProgressBar byteProgressBar = new JProgressBar();
 	private final AtomicBoolean cancelRequested = new AtomicBoolean(false);
+	private final AtomicReference<TransferProgress> pendingProgress = new AtomicReference<>();
+	private final BandwidthLimiter bandwidthLimiter = new BandwidthLimiter();
 
 	public TransferProgressDialog(Component parent, boolean move) {
 		dialog = new JDialog(SwingUtilities.getWindowAncestor(parent), move ? "Move" : "Copy");
@@ -51,13 +61,26 @@ public final class TransferProgressDialog {
 		progressPanel.setLayout(new BoxLayout(progressPanel, BoxLayout.Y_AXIS));
 		progressPanel.add(createRow("Files", filesLabel, fileProgressBar));
 		progressPanel.add(createRow("Bytes", bytesLabel, byteProgressBar));
+		progressPanel.add(rateLabel);
 		content.add(progressPanel, BorderLayout.CENTER);
 
 		JButton cancelButton = new JButton("Cancel");
 		cancelButton.addActionListener(e -> cancelRequested.set(true));
 
-		JPanel actions = new JPanel(new FlowLayout(FlowLayout.RIGHT, 0, 0));
-		actions.add(cancelButton);
+		String[] limitNames = new String[SPEED_LIMITS.length];
+		for (int i = 0; i < SPEED_LIMITS.length; i++) {
+			limitNames[i] = SPEED_LIMITS[i] == BandwidthLimiter.UNLIMITED ? "Unlimited" : formatBytes(SPEED_LIMITS[i]) + "/s";
+		}
+		JComboBox<String> limitBox = new JComboBox<>(limitNames);
+		limitBox.addActionListener(e -> bandwidthLimiter.setLimit(SPEED_LIMITS[Math.max(0, limitBox.getSelectedIndex())]));
+
+		JPanel limitPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 6, 0));
+		limitPanel.add(new JLabel("Speed limit:"));
+		limitPanel.add(limitBox);
+
+		JPanel actions = new JPanel(new BorderLayout(12, 0));
+		actions.add(limitPanel, BorderLayout.WEST);
+		actions.add(cancelButton, BorderLayout.EAST);
 		content.add(actions, BorderLayout.SOUTH);
 
 		dialog.setContentPane(content);
@@ -85,11 +108,32 @@ public final class TransferProgressDialog {
 		return cancelRequested.get();
 	}
 
+	/**
+	 * @return the limiter driven by the dialog's speed limit; pass it in the
+	 *         transfer's options so the limit can be changed while it runs
+	 */
+	public BandwidthLimiter bandwidthLimiter() {
+		return bandwidthLimiter;
+	}
+
+	/**
+	 * Keeps only the newest snapshot; at most one update is queued on the EDT
+	 * at a time, however often this is called.
+	 */
 	public void updateProgress(TransferProgress progress) {
 		if (progress == null) {
 			return;
 		}
-		SwingUtilities.invokeLater(() -> applyProgress(progress));
+		if (pendingProgress.getAndSet(progress) == null) {
+			SwingUtilities.invokeLater(this::applyPendingProgress);
+		}
+	}
+
+	private void applyPendingProgress() {
+		TransferProgress progress = pendingProgress.getAndSet(null);
+		if (progress != null) {
+			applyProgress(progress);
+		}
 	}
 
 	private JPanel createRow(String title, JLabel valueLabel, JProgressBar progressBar) {
@@ -109,13 +153,32 @@ public final class TransferProgressDialog {
 
 		long totalFiles = Math.max(0L, progress.totalFiles());
 		long completedFiles = Math.max(0L, progress.completedFiles());
-		filesLabel.setText("Files: " + completedFiles + " / " + totalFiles);
+		String scanning = progress.scanComplete() ? "" : " (scanning...)";
+		filesLabel.setText("Files: " + completedFiles + " / " + totalFiles + scanning);
 		updateBar(fileProgressBar, completedFiles, totalFiles);
 
 		long totalBytes = Math.max(0L, progress.totalBytes());
 		long transferredBytes = Math.max(0L, progress.transferredBytes());
-		bytesLabel.setText("Bytes: " + formatBytes(transferredBytes) + " / " + formatBytes(totalBytes));
+		String unchanged = progress.unchangedBytes() > 0L ? ", " + formatBytes(progress.unchangedBytes()) + " unchanged" : "";
+		bytesLabel.setText("Bytes: " + formatBytes(transferredBytes) + " / " + formatBytes(totalBytes) + unchanged + scanning);
 		updateBar(byteProgressBar, transferredBytes, totalBytes);
+
+		rateLabel.setText(formatRate(progress.smoothedBytesPerSecond(), progress.remaining()));
+	}
+
+	private String formatRate(long bytesPerSecond, Duration remaining) {
+		if (bytesPerSecond <= 0L) {
+			return " ";
+		}
+		String rate = formatBytes(bytesPerSecond) + "/s";
+		if (remaining == null) {
+			return rate;
+		}
+		long seconds = Math.max(0L, remaining.toSeconds());
+		String time = seconds >= 3600L
+				? String.format("%d:%02d:%02d", seconds / 3600L, seconds / 60L % 60L, seconds % 60L)
+				: String.format("%d:%02d", seconds / 60L, seconds % 60L);
+		return rate + ", " + time + " left";
 	}
 
 	private void updateBar(JProgressBar progressBar, long current, long total) {
@@ -29,11 +29,16 @@ import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.ImageIcon;
 import javax.swing.JComponent;
@@ -63,8 +68,17 @@ import dev.nuclr.commander.event.Events;
 import dev.nuclr.commander.event.FunctionKeyCommandEvent;
 import dev.nuclr.commander.plugin.PluginLoader;
 import dev.nuclr.commander.plugin.PluginRegistry;
+import dev.nuclr.commander.service.PanelTransferService;
+import dev.nuclr.commander.service.PanelTransferService.Conflict;
+import dev.nuclr.commander.service.PanelTransferService.ConflictResolution;
+import dev.nuclr.commander.service.PanelTransferService.ConflictResolver;
+import dev.nuclr.commander.service.PanelTransferService.PendingTransfer;
+import dev.nuclr.commander.service.TransferQueueService;
 import dev.nuclr.commander.ui.ChangeDrivePopup;
 import dev.nuclr.commander.ui.ConsolePanel;
+import dev.nuclr.commander.ui.common.Alerts;
+import dev.nuclr.commander.ui.common.ConflictBatchDialog;
+import dev.nuclr.commander.ui.common.TransferProgressDialog;
 import dev.nuclr.commander.ui.functionBar.FunctionKeyBar;
 import dev.nuclr.commander.ui.pluginManagement.PluginManagementPopup;
 import dev.nuclr.platform.NuclrSettings;
@@ -130,6 +144,12 @@ public class MainWindow implements NuclrEventListener {
 	@Autowired
 	private PluginRegistry pluginRegistry;
 
+	@Autowired
+	private PanelTransferService panelTransferService;
+
+	@Autowired
+	private TransferQueueService transferQueueService;
+
 	private JComponent activeScreenComponent;
 	
 	private JPanel cardPanel;
@@ -241,6 +261,109 @@ public class MainWindow implements NuclrEventListener {
 			mainFrame.setExtendedState(JFrame.MAXIMIZED_BOTH);
 		}
 
+		SwingUtilities.invokeLater(() -> {
+			transferQueueService.restore(conflictResolver());
+			offerPendingTransfers();
+		});
+	}
+
+	/**
+	 * Offers to pick up copies and moves that were interrupted by a crash or a
+	 * restart.
+	 */
+	private void offerPendingTransfers() {
+		for (PendingTransfer pending : panelTransferService.pendingTransfers()) {
+			if (transferQueueService.claims(pending)) {
+				continue;
+			}
+			String message = (pending.move() ? "Moving " : "Copying ") + pending.sources().size() + " item(s) to "
+					+ pending.destinationDirectories().get(0) + " was interrupted.\nResume it now?";
+			Object[] options = { "Resume", "Discard", "Later" };
+			int choice = JOptionPane.showOptionDialog(mainFrame, message, "Interrupted Transfer",
+					JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
+			if (choice == 0) {
+				resumeTransfer(pending);
+			} else if (choice == 1) {
+				try {
+					panelTransferService.discard(pending);
+				} catch (IOException e) {
+					log.warn("Failed to discard interrupted transfer {}: {}", pending.id(), e.toString());
+				}
+			}
+		}
+	}
+
+	private void resumeTransfer(PendingTransfer pending) {
+		TransferProgressDialog progressDialog = new TransferProgressDialog(mainFrame, pending.move());
+		progressDialog.showDialog();
+		Thread.ofVirtual().name("transfer-resume").start(() -> {
+			try {
+				panelTransferService.resume(
+						pending,
+						conflictResolver(),
+						progressDialog::updateProgress,
+						progressDialog::isCancelRequested,
+						progressDialog.bandwidthLimiter());
+			} catch (IOException e) {
+				if (!progressDialog.isCancelRequested()) {
+					Alerts.showMessageDialog(mainFrame, e.getMessage(), "Transfer Failed", JOptionPane.ERROR_MESSAGE);
+				}
+			} finally {
+				progressDialog.closeDialog();
+			}
+		});
+	}
+
+	/**
+	 * Asks about conflicts found before a transfer in one dialog, and about
+	 * those that only show up while copying one at a time.
+	 */
+	private ConflictResolver conflictResolver() {
+		return new ConflictResolver() {
+			@Override
+			public ConflictResolution resolve(Path sourcePath, Path targetPath, boolean directory) throws IOException {
+				return askConflictResolution(sourcePath, targetPath, directory);
+			}
+
+			@Override
+			public List<ConflictResolution> resolveAll(List<Conflict> conflicts) throws IOException {
+				return askConflictResolutions(conflicts);
+			}
+		};
+	}
+
+	private List<ConflictResolution> askConflictResolutions(List<Conflict> conflicts) throws IOException {
+		AtomicReference<List<ConflictResolution>> choice = new AtomicReference<>();
+		try {
+			SwingUtilities.invokeAndWait(() -> choice.set(ConflictBatchDialog.show(mainFrame, conflicts)));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Transfer interrupted", e);
+		} catch (InvocationTargetException e) {
+			throw new IOException("Failed to ask about " + conflicts.size() + " conflicts", e.getCause());
+		}
+		// Closing the dialog skips everything, as closing the single conflict prompt does.
+		return choice.get() != null ? choice.get() : Collections.nCopies(conflicts.size(), ConflictResolution.SKIP);
+	}
+
+	private ConflictResolution askConflictResolution(Path sourcePath, Path targetPath, boolean directory) throws IOException {
+		Object[] options = { "Overwrite", "Skip", "Rename" };
+		int[] choice = { 1 };
+		try {
+			SwingUtilities.invokeAndWait(() -> choice[0] = JOptionPane.showOptionDialog(mainFrame,
+					targetPath + " already exists.", "Transfer Conflict", JOptionPane.DEFAULT_OPTION,
+					JOptionPane.WARNING_MESSAGE, null, options, options[1]));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Transfer interrupted", e);
+		} catch (InvocationTargetException e) {
+			throw new IOException("Failed to ask about " + targetPath, e.getCause());
+		}
+		return switch (choice[0]) {
+			case 0 -> ConflictResolution.OVERWRITE;
+			case 2 -> ConflictResolution.RENAME;
+			default -> ConflictResolution.SKIP;
+		};
 	}
 
 	protected void saveWindowState() {